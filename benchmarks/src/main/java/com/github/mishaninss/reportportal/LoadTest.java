@@ -0,0 +1,223 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the fork coordination. Starts a {@link ReportPortalStubServer}, generates feature files and
+ * runs {@code load.forks} {@link LoadTestFork} processes over them, then checks that exactly one launch,
+ * one root suite and one item per feature were created and everything was finished.
+ * <pre>
+ * java -Dload.forks=8 -Dload.latency=20 -Drp.coordinator=socket -cp benchmarks/target/benchmarks.jar \
+ *     com.github.mishaninss.reportportal.LoadTest
+ * </pre>
+ * Options:
+ * <ul>
+ * <li>load.forks - number of forked processes, 4 by default</li>
+ * <li>load.features - number of feature files, 20 by default</li>
+ * <li>load.scenarios - scenarios per feature, 5 by default</li>
+ * <li>load.steps - steps per scenario, 5 by default</li>
+ * <li>load.overlap - number of forks running every feature, 2 by default</li>
+ * <li>load.latency - delay of every stub response in ms, 10 by default</li>
+ * <li>load.errorRate - probability of a stub request to fail, 0 by default</li>
+ * <li>load.timeout - maximum run time in ms, 600000 by default</li>
+ * </ul>
+ * All {@code rp.*} system properties are passed to the forks, so every reporter option can be load-tested,
+ * {@code rp.features.path} points to the generated features.
+ * The exit code is 1 if a check fails.
+ */
+public final class LoadTest {
+    private static final String PROJECT = "load";
+    private static final String RUNNER_NAME = "LoadTestRunner";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int forks = SystemProperties.getInt("load.forks", 4);
+        int features = SystemProperties.getInt("load.features", 20);
+        int scenarios = SystemProperties.getInt("load.scenarios", 5);
+        int steps = SystemProperties.getInt("load.steps", 5);
+        int overlap = Math.min(forks, SystemProperties.getInt("load.overlap", 2));
+        long latency = SystemProperties.getLong("load.latency", 10);
+        double errorRate = Double.parseDouble(SystemProperties.getString("load.errorRate", "0"));
+        long timeout = SystemProperties.getLong("load.timeout", 600000);
+
+        java.io.File workDir = Files.createTempDirectory("rp_load_").toFile();
+        java.io.File featuresDir = new java.io.File(workDir, "features");
+        generateFeatures(featuresDir, features, scenarios, steps);
+        generateRunners(new java.io.File(workDir, "target/test-classes"), forks);
+
+        ReportPortalStubServer server = new ReportPortalStubServer(PROJECT, latency, errorRate, Math.max(16, forks * 4));
+        server.start();
+        long start = System.currentTimeMillis();
+        boolean completed;
+        List<Integer> failedForks = new ArrayList<>();
+        try {
+            List<Process> processes = new ArrayList<>();
+            for (int fork = 1; fork <= forks; fork++) {
+                processes.add(startFork(workDir, featuresDir, server.getEndpoint(), fork, forks, overlap));
+            }
+            completed = true;
+            long deadline = start + timeout;
+            for (int i = 0; i < processes.size(); i++) {
+                Process process = processes.get(i);
+                if (!waitFor(process, deadline)) {
+                    process.destroy();
+                    completed = false;
+                    failedForks.add(i + 1);
+                } else if (process.exitValue() != 0) {
+                    failedForks.add(i + 1);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        List<String> failures = verify(server, features, features * scenarios * overlap);
+        if (!completed) {
+            failures.add("Forks haven't finished within " + timeout + " ms");
+        }
+        if (!failedForks.isEmpty()) {
+            failures.add("Forks " + failedForks + " failed, see " + workDir + "/fork_N.log");
+        }
+
+        System.out.println(String.format(Locale.ROOT, "Forks: %d, features: %d, scenarios: %d, overlap: %d, latency: %d ms, error rate: %.3f",
+                forks, features, features * scenarios * overlap, overlap, latency, errorRate));
+        System.out.println(String.format(Locale.ROOT, "End-to-end time: %d ms", elapsed));
+        System.out.println(String.format(Locale.ROOT, "Requests: %d (%.1f/s), log messages: %d, injected errors: %d",
+                server.getRequests(), server.getRequests() * 1000.0 / Math.max(1, elapsed), server.getLogs(), server.getErrors()));
+        System.out.println(String.format(Locale.ROOT, "Scenarios: %.1f/s", features * scenarios * overlap * 1000.0 / Math.max(1, elapsed)));
+        System.out.println("Work directory: " + workDir);
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+        } else {
+            for (String failure : failures) {
+                System.out.println("FAILED: " + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    private static List<String> verify(ReportPortalStubServer server, int features, int scenarios) {
+        List<String> failures = new ArrayList<>();
+        if (server.getLaunchesStarted() != 1) {
+            failures.add(server.getLaunchesStarted() + " launches started, expected 1");
+        }
+        if (server.getLaunchesFinished() != 1) {
+            failures.add(server.getLaunchesFinished() + " launches finished, expected 1");
+        }
+        List<ReportPortalStubServer.Item> items = server.getItems();
+        int roots = 0;
+        int featureItems = 0;
+        int scenarioItems = 0;
+        int unfinished = 0;
+        Set<String> featureNames = new HashSet<>();
+        for (ReportPortalStubServer.Item item : items) {
+            if (item.parentId == null) {
+                roots++;
+            } else if ("TEST".equals(item.type)) {
+                featureItems++;
+                featureNames.add(item.name);
+            } else if ("STEP".equals(item.type)) {
+                scenarioItems++;
+            }
+            if (!item.finished) {
+                unfinished++;
+            }
+        }
+        if (roots != 1) {
+            failures.add(roots + " root suites, expected 1");
+        }
+        if (featureItems != features || featureNames.size() != features) {
+            failures.add(featureItems + " feature items with " + featureNames.size() + " names, expected " + features);
+        }
+        if (scenarioItems != scenarios) {
+            failures.add(scenarioItems + " scenario items, expected " + scenarios);
+        }
+        if (unfinished != 0) {
+            failures.add(unfinished + " items haven't been finished");
+        }
+        return failures;
+    }
+
+    private static Process startFork(java.io.File workDir, java.io.File featuresDir, String endpoint,
+                                     int fork, int forks, int overlap) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + java.io.File.separator + "bin" + java.io.File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-D" + FeaturePreregistrar.PATH_PROPERTY_NAME + "=" + featuresDir.getAbsolutePath());
+        for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+            String name = String.valueOf(property.getKey());
+            if (name.startsWith("rp.")) {
+                command.add("-D" + name + "=" + property.getValue());
+            }
+        }
+        command.add("-Dfork.number=" + fork);
+        command.add("-Drun.classes=**/" + RUNNER_NAME + "*.class");
+        command.add("-Drp.endpoint=" + endpoint);
+        command.add("-Drp.project=" + PROJECT);
+        command.add("-Drp.uuid=" + PROJECT);
+        command.add("-Drp.launch=" + PROJECT);
+        command.add(LoadTestFork.class.getName());
+        command.add(featuresDir.getAbsolutePath());
+        command.add(String.valueOf(fork));
+        command.add(String.valueOf(forks));
+        command.add(String.valueOf(overlap));
+        java.io.File log = new java.io.File(workDir, "fork_" + fork + ".log");
+        return new ProcessBuilder(command)
+                .directory(workDir)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+    }
+
+    private static boolean waitFor(Process process, long deadline) throws InterruptedException {
+        while (true) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException ex) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+        }
+    }
+
+    private static void generateFeatures(java.io.File dir, int features, int scenarios, int steps) throws IOException {
+        for (int f = 1; f <= features; f++) {
+            StringBuilder text = new StringBuilder();
+            text.append("@load\nFeature: Load feature ").append(f).append("\n");
+            for (int s = 1; s <= scenarios; s++) {
+                text.append("\n  Scenario: Scenario ").append(s).append(" of feature ").append(f).append("\n");
+                for (int i = 1; i <= steps; i++) {
+                    text.append("    ").append(i == 1 ? "Given" : "And").append(" step ").append(i).append("\n");
+                }
+            }
+            FileUtils.write(new java.io.File(dir, String.format("load_%05d.feature", f)), text, StandardCharsets.UTF_8.name());
+        }
+    }
+
+    /**
+     * Empty class files matched by {@code run.classes}, so the reporter expects one runner per fork
+     */
+    private static void generateRunners(java.io.File dir, int forks) throws IOException {
+        for (int fork = 1; fork <= forks; fork++) {
+            FileUtils.touch(new java.io.File(dir, RUNNER_NAME + fork + ".class"));
+        }
+    }
+}
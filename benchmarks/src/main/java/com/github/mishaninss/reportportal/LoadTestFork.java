@@ -0,0 +1,158 @@
+package com.github.mishaninss.reportportal;
+
+import gherkin.formatter.Formatter;
+import gherkin.formatter.model.Background;
+import gherkin.formatter.model.Examples;
+import gherkin.formatter.model.Feature;
+import gherkin.formatter.model.Match;
+import gherkin.formatter.model.Result;
+import gherkin.formatter.model.Scenario;
+import gherkin.formatter.model.ScenarioOutline;
+import gherkin.formatter.model.Step;
+import gherkin.parser.Parser;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One fork of a {@link LoadTest}. Runs {@link ExtendedScenarioReporter} over its share of the generated
+ * feature files the way Cucumber would, every step passes.
+ * <p>
+ * Arguments: features directory, fork number, number of forks, number of forks running each feature.
+ */
+public final class LoadTestFork {
+    private static final Long STEP_DURATION = 1000000L;
+
+    private LoadTestFork() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        java.io.File featuresDir = new java.io.File(args[0]);
+        int forkNumber = Integer.parseInt(args[1]);
+        int forks = Integer.parseInt(args[2]);
+        int overlap = Integer.parseInt(args[3]);
+
+        java.io.File[] files = featuresDir.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list " + featuresDir);
+        }
+        Arrays.sort(files);
+        ExtendedScenarioReporter reporter = new ExtendedScenarioReporter();
+        for (int i = 0; i < files.length; i++) {
+            if (runsFeature(i, forkNumber, forks, overlap)) {
+                run(reporter, files[i]);
+            }
+        }
+        reporter.done();
+        reporter.close();
+    }
+
+    /**
+     * Feature i runs in forks i % forks + 1 and the {@code overlap - 1} forks after it
+     */
+    static boolean runsFeature(int feature, int forkNumber, int forks, int overlap) {
+        for (int k = 0; k < Math.min(overlap, forks); k++) {
+            if ((feature + k) % forks + 1 == forkNumber) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void run(ExtendedScenarioReporter reporter, java.io.File file) throws IOException {
+        FeatureCollector feature = new FeatureCollector();
+        String uri = file.getName();
+        new Parser(feature).parse(FileUtils.readFileToString(file, StandardCharsets.UTF_8.name()), uri, 0);
+
+        reporter.uri(uri);
+        reporter.feature(feature.feature);
+        for (int i = 0; i < feature.scenarios.size(); i++) {
+            Scenario scenario = feature.scenarios.get(i);
+            List<Step> steps = feature.steps.get(i);
+            reporter.startOfScenarioLifeCycle(scenario);
+            reporter.scenario(scenario);
+            for (Step step : steps) {
+                reporter.step(step);
+            }
+            for (Step step : steps) {
+                reporter.match(new Match(null, "LoadTestSteps." + step.getName().replace(' ', '_') + "()"));
+                reporter.write("Running " + step.getName());
+                reporter.result(new Result("passed", STEP_DURATION, null));
+            }
+            reporter.endOfScenarioLifeCycle(scenario);
+        }
+        reporter.eof();
+    }
+
+    /**
+     * Keeps the feature, scenarios and steps reported by the gherkin parser
+     */
+    private static final class FeatureCollector implements Formatter {
+        private Feature feature;
+        private final List<Scenario> scenarios = new ArrayList<>();
+        private final List<List<Step>> steps = new ArrayList<>();
+
+        @Override
+        public void feature(Feature feature) {
+            this.feature = feature;
+        }
+
+        @Override
+        public void scenario(Scenario scenario) {
+            scenarios.add(scenario);
+            steps.add(new ArrayList<Step>());
+        }
+
+        @Override
+        public void step(Step step) {
+            if (!steps.isEmpty()) {
+                steps.get(steps.size() - 1).add(step);
+            }
+        }
+
+        @Override
+        public void syntaxError(String state, String event, List<String> legalEvents, String uri, Integer line) {
+            throw new IllegalStateException("Syntax error in " + uri + ":" + line);
+        }
+
+        @Override
+        public void uri(String uri) {
+        }
+
+        @Override
+        public void scenarioOutline(ScenarioOutline scenarioOutline) {
+        }
+
+        @Override
+        public void examples(Examples examples) {
+        }
+
+        @Override
+        public void startOfScenarioLifeCycle(Scenario scenario) {
+        }
+
+        @Override
+        public void background(Background background) {
+        }
+
+        @Override
+        public void endOfScenarioLifeCycle(Scenario scenario) {
+        }
+
+        @Override
+        public void done() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void eof() {
+        }
+    }
+}
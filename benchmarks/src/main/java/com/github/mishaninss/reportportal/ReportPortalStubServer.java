@@ -0,0 +1,227 @@
+package com.github.mishaninss.reportportal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP stand-in for the launch, item and log API of Report Portal. It keeps the launches and
+ * items it was asked to create so a load test can check them afterwards. Every request is delayed by
+ * {@code latency} ms and fails with HTTP 500 with probability {@code errorRate}.
+ */
+final class ReportPortalStubServer {
+    private static final Pattern NAME = Pattern.compile("\"name\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Pattern TYPE = Pattern.compile("\"type\"\\s*:\\s*\"([A-Z_]+)\"");
+    private static final Pattern LAUNCH = Pattern.compile("/launch/?");
+    private static final Pattern FINISH_LAUNCH = Pattern.compile("/launch/([^/]+)/finish");
+    private static final Pattern ITEM = Pattern.compile("/item(?:/([^/]+))?");
+    private static final Pattern UPDATE_ITEM = Pattern.compile("/item/([^/]+)/update");
+    private static final Pattern LOG = Pattern.compile("/log/?");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String apiPrefix;
+    private final long latency;
+    private final double errorRate;
+    private final Random random = new Random();
+
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong logs = new AtomicLong();
+    private final AtomicInteger launchesStarted = new AtomicInteger();
+    private final AtomicInteger launchesFinished = new AtomicInteger();
+    private final ConcurrentMap<String, Item> items = new ConcurrentHashMap<>();
+
+    static final class Item {
+        final String parentId;
+        final String name;
+        final String type;
+        volatile boolean finished;
+
+        private Item(String parentId, String name, String type) {
+            this.parentId = parentId;
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /**
+     * @param project - Report Portal project the reporter is configured with
+     * @param latency - delay of every response in milliseconds
+     * @param errorRate - probability of a request to fail, 0 to 1
+     * @param threads - number of request handling threads
+     */
+    ReportPortalStubServer(String project, long latency, double errorRate, int threads) throws IOException {
+        this.apiPrefix = "/api/v1/" + project;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return value of {@code rp.endpoint} pointing to the stub
+     */
+    String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    long getLogs() {
+        return logs.get();
+    }
+
+    int getLaunchesStarted() {
+        return launchesStarted.get();
+    }
+
+    int getLaunchesFinished() {
+        return launchesFinished.get();
+    }
+
+    List<Item> getItems() {
+        return new ArrayList<>(items.values());
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8.name());
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (errorRate > 0 && nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            respond(exchange, 500, "{\"message\":\"Injected error\"}");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if (!path.startsWith(apiPrefix)) {
+            respond(exchange, 404, "{\"message\":\"Unknown path\"}");
+            return;
+        }
+        path = path.substring(apiPrefix.length());
+        String method = exchange.getRequestMethod();
+        Matcher matcher;
+        if ("POST".equals(method) && LAUNCH.matcher(path).matches()) {
+            launchesStarted.incrementAndGet();
+            respond(exchange, 201, created(nextId()));
+        } else if ("PUT".equals(method) && (matcher = FINISH_LAUNCH.matcher(path)).matches()) {
+            launchesFinished.incrementAndGet();
+            respond(exchange, 200, completed("Launch " + matcher.group(1) + " finished"));
+        } else if ("PUT".equals(method) && (matcher = UPDATE_ITEM.matcher(path)).matches()) {
+            respond(exchange, 200, completed("Item " + matcher.group(1) + " updated"));
+        } else if ("POST".equals(method) && (matcher = ITEM.matcher(path)).matches()) {
+            String id = nextId();
+            items.put(id, new Item(matcher.group(1), find(NAME, body), find(TYPE, body)));
+            respond(exchange, 201, created(id));
+        } else if ("PUT".equals(method) && (matcher = ITEM.matcher(path)).matches() && matcher.group(1) != null) {
+            Item item = items.get(matcher.group(1));
+            if (item == null) {
+                respond(exchange, 404, "{\"message\":\"Unknown item " + matcher.group(1) + "\"}");
+                return;
+            }
+            item.finished = true;
+            respond(exchange, 200, completed("Item " + matcher.group(1) + " finished"));
+        } else if ("POST".equals(method) && LOG.matcher(path).matches()) {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType != null && contentType.startsWith("multipart/")) {
+                logs.addAndGet(Math.max(1, count("\"itemId\"", body)));
+                respond(exchange, 201, "{\"responses\":[]}");
+            } else {
+                logs.incrementAndGet();
+                respond(exchange, 201, created(nextId()));
+            }
+        } else {
+            respond(exchange, 404, "{\"message\":\"Unknown request " + method + " " + path + "\"}");
+        }
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private String nextId() {
+        return Long.toHexString(ids.incrementAndGet());
+    }
+
+    private static String created(String id) {
+        return "{\"id\":\"" + id + "\"}";
+    }
+
+    private static String completed(String message) {
+        return "{\"msg\":\"" + message + "\"}";
+    }
+
+    private static String find(Pattern pattern, String body) {
+        Matcher matcher = pattern.matcher(body);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static int count(String token, String body) {
+        int count = 0;
+        for (int i = body.indexOf(token); i >= 0; i = body.indexOf(token, i + token.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.mishaninss.reportportal;
+
+import gherkin.formatter.model.Comment;
+import gherkin.formatter.model.Examples;
+import gherkin.formatter.model.ExamplesTableRow;
+import gherkin.formatter.model.Feature;
+import gherkin.formatter.model.Match;
+import gherkin.formatter.model.Result;
+import gherkin.formatter.model.Scenario;
+import gherkin.formatter.model.Step;
+import gherkin.formatter.model.Tag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the Cucumber callbacks of {@link ExtendedScenarioReporter} against {@link StubReportPortalService}.
+ * <p>
+ * Every benchmark thread owns a reporter, the {@code *Forks} variants run several of them at once to simulate
+ * forks sharing a {@link MemoryCoordinator}. Nothing is written to ./target with the default parameters, run
+ * from a scratch directory when trying the file based options. Add {@code -prof gc} to measure allocation:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dfork.number=1", "-Drp.coordinator=memory", "-Drp.endpoint=http://localhost:8080",
+        "-Drp.uuid=benchmark", "-Drp.project=benchmark", "-Drp.launch=benchmark"})
+public class ReporterBenchmark {
+    private static final int FORKS = 4;
+
+    /**
+     * Values of {@code rp.log.async} and {@code rp.item.async}
+     */
+    @Param({"false", "true"})
+    public String async;
+
+    private ExtendedScenarioReporter reporter;
+    private Feature feature;
+    private Scenario scenario;
+    private Step step;
+    private Match match;
+    private Result passed;
+    private Examples examples;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IllegalAccessException {
+        System.setProperty(LogPipeline.ASYNC_PROPERTY_NAME, async);
+        System.setProperty(ItemDispatcher.ASYNC_PROPERTY_NAME, async);
+        synchronized (ReporterBenchmark.class) {
+            StubReportPortalService.install();
+        }
+
+        List<Comment> comments = Collections.emptyList();
+        List<Tag> tags = Collections.singletonList(new Tag("@benchmark", 1));
+        feature = new Feature(comments, tags, "Feature", "Benchmark", "", 1, "benchmark");
+        scenario = new Scenario(comments, tags, "Scenario", "Callbacks", "", 3, "benchmark;callbacks");
+        step = new Step(comments, "Given ", "a step", 4, null, null);
+        match = new Match(null, "BenchmarkSteps.step()");
+        passed = new Result("passed", 1000L, null);
+        List<ExamplesTableRow> rows = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            rows.add(new ExamplesTableRow(comments, Arrays.asList("value " + i, "expected " + i), 10 + i, "row;" + i));
+        }
+        examples = new Examples(comments, tags, "Examples", "", "", 9, "examples", rows);
+
+        reporter = new ExtendedScenarioReporter();
+        reporter.uri("benchmark.feature");
+        reporter.feature(feature);
+        reporter.startOfScenarioLifeCycle(scenario);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reporter.endOfScenarioLifeCycle(scenario);
+        reporter.eof();
+        reporter.close();
+    }
+
+    @Benchmark
+    public void step() {
+        reporter.step(step);
+        reporter.match(match);
+        reporter.result(passed);
+    }
+
+    @Benchmark
+    @Threads(FORKS)
+    public void stepForks() {
+        step();
+    }
+
+    @Benchmark
+    public void write() {
+        reporter.write("log message");
+    }
+
+    @Benchmark
+    @Threads(FORKS)
+    public void writeForks() {
+        write();
+    }
+
+    @Benchmark
+    public void scenarioLifeCycle() {
+        reporter.endOfScenarioLifeCycle(scenario);
+        reporter.startOfScenarioLifeCycle(scenario);
+    }
+
+    @Benchmark
+    @Threads(FORKS)
+    public void scenarioLifeCycleForks() {
+        scenarioLifeCycle();
+    }
+
+    @Benchmark
+    public void feature() {
+        reporter.endOfScenarioLifeCycle(scenario);
+        reporter.eof();
+        reporter.feature(feature);
+        reporter.startOfScenarioLifeCycle(scenario);
+    }
+
+    @Benchmark
+    @Threads(FORKS)
+    public void featureForks() {
+        feature();
+    }
+
+    @Benchmark
+    public void examples() {
+        reporter.examples(examples);
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.reportportal.cucumber.Utils;
+import com.epam.reportportal.restclient.endpoint.RestEndpoint;
+import com.epam.reportportal.service.ReportPortalService;
+import com.epam.reportportal.utils.queue.Result;
+import com.epam.ta.reportportal.ws.model.EntryCreatedRS;
+import com.epam.ta.reportportal.ws.model.FinishExecutionRQ;
+import com.epam.ta.reportportal.ws.model.FinishTestItemRQ;
+import com.epam.ta.reportportal.ws.model.OperationCompletionRS;
+import com.epam.ta.reportportal.ws.model.StartTestItemRQ;
+import com.epam.ta.reportportal.ws.model.launch.StartLaunchRQ;
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import com.google.common.base.Suppliers;
+import org.apache.commons.lang3.reflect.FieldUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Report Portal service answering every request in process, so benchmarks measure the reporter only
+ */
+final class StubReportPortalService extends ReportPortalService {
+    private final AtomicLong ids = new AtomicLong();
+
+    private StubReportPortalService() {
+        super(stubEndpoint(), "api/v1", "benchmark");
+    }
+
+    /**
+     * Replace the service of the Cucumber agent with the stub
+     */
+    static void install() throws IllegalAccessException {
+        FieldUtils.writeStaticField(Utils.class, "reportPortalService",
+                Suppliers.ofInstance(new StubReportPortalService()), true);
+    }
+
+    @Override
+    public EntryCreatedRS startLaunch(StartLaunchRQ rq) {
+        return new EntryCreatedRS(nextId());
+    }
+
+    @Override
+    public OperationCompletionRS finishLaunch(String launchId, FinishExecutionRQ rq) {
+        return new OperationCompletionRS();
+    }
+
+    @Override
+    public EntryCreatedRS startRootTestItem(StartTestItemRQ rq) {
+        return new EntryCreatedRS(nextId());
+    }
+
+    @Override
+    public EntryCreatedRS startTestItem(String parentItemId, StartTestItemRQ rq) {
+        return new EntryCreatedRS(nextId());
+    }
+
+    @Override
+    public OperationCompletionRS finishTestItem(String itemId, FinishTestItemRQ rq) {
+        return new OperationCompletionRS();
+    }
+
+    @Override
+    public Result<EntryCreatedRS> log(SaveLogRQ rq) {
+        return new Result<>(new EntryCreatedRS(nextId()));
+    }
+
+    private String nextId() {
+        return Long.toHexString(ids.incrementAndGet());
+    }
+
+    /**
+     * @return endpoint answering requests sent by {@link ReportPortalClient} with empty responses
+     */
+    private static RestEndpoint stubEndpoint() {
+        return (RestEndpoint) Proxy.newProxyInstance(RestEndpoint.class.getClassLoader(), new Class<?>[]{RestEndpoint.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        Object last = args == null || args.length == 0 ? null : args[args.length - 1];
+                        return last instanceof Class ? ((Class<?>) last).newInstance() : null;
+                    }
+                });
+    }
+}
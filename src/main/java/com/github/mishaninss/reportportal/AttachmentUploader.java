@@ -0,0 +1,317 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sends attachments of test items to Report Portal, one multipart request per attachment.
+ * Files are streamed from disk while the request is written instead of being loaded on the heap.
+ * <p>
+ * With {@code rp.attachments.dedup=true} the SHA-1 of every uploaded attachment is remembered in the
+ * {@link LaunchContext}, in an LRU cache of {@code rp.attachments.cache.size} entries per launch. An attachment
+ * whose content has been uploaded already, e.g. the same page dump of a retried scenario, is logged as a
+ * text reference to the first upload instead. The content is reserved before it is uploaded, so it is
+ * uploaded once even by concurrent threads, and released again if the upload fails.
+ * <p>
+ * With {@code rp.attachments.async=true} hashing and uploading happen on a background thread. Up to
+ * {@code rp.attachments.queue.capacity} attachments wait for it, then the test thread blocks. Attached
+ * files must stay in place until they are sent, see {@link #flush()} and {@link #mark()}. In {@link Spool}
+ * mode only the message of an attachment is journaled.
+ */
+final class AttachmentUploader implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttachmentUploader.class);
+
+    static final String ASYNC_PROPERTY_NAME = "rp.attachments.async";
+    static final String DEDUP_PROPERTY_NAME = "rp.attachments.dedup";
+    static final String CACHE_SIZE_PROPERTY_NAME = "rp.attachments.cache.size";
+    static final String QUEUE_CAPACITY_PROPERTY_NAME = "rp.attachments.queue.capacity";
+
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final String EMBEDDING_NAME = "embedding";
+
+    private final boolean async;
+    private final boolean dedup;
+    private final LogPipeline logPipeline;
+    private final DeferredCalls deferred;
+    private final BlockingQueue<Attachment> queue;
+    private Thread worker;
+    private volatile boolean closed;
+
+    private AttachmentUploader(boolean async, boolean dedup, LogPipeline logPipeline, DeferredCalls deferred) {
+        this.async = async;
+        this.dedup = dedup;
+        this.logPipeline = logPipeline;
+        this.deferred = deferred;
+        queue = async ? new ArrayBlockingQueue<Attachment>(Math.max(1, SystemProperties.getInt(QUEUE_CAPACITY_PROPERTY_NAME, DEFAULT_QUEUE_CAPACITY))) : null;
+    }
+
+    /**
+     * @param logPipeline - pipeline attachment messages are journaled with in spool mode
+     * @return uploader configured with system properties
+     */
+    static AttachmentUploader create(LogPipeline logPipeline) {
+        return create(logPipeline, new DeferredCalls());
+    }
+
+    /**
+     * @param logPipeline - pipeline attachment messages are journaled with in spool mode
+     * @param deferred - calls made on the calling thread
+     * @return uploader configured with system properties
+     */
+    static AttachmentUploader create(LogPipeline logPipeline, DeferredCalls deferred) {
+        final AttachmentUploader uploader = new AttachmentUploader(SystemProperties.getBoolean(ASYNC_PROPERTY_NAME, false),
+                SystemProperties.getBoolean(DEDUP_PROPERTY_NAME, false), logPipeline, deferred);
+        if (uploader.async) {
+            uploader.worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    uploader.uploadLoop();
+                }
+            }, "rp-attachment-uploader");
+            uploader.worker.setDaemon(true);
+            uploader.worker.start();
+        }
+        return uploader;
+    }
+
+    /**
+     * @return number of attachment hashes remembered per launch
+     */
+    static int getCacheSize() {
+        return Math.max(1, SystemProperties.getInt(CACHE_SIZE_PROPERTY_NAME, DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * @return true if attachments are deduplicated or sent in the background
+     */
+    boolean isEnabled() {
+        return async || dedup;
+    }
+
+    /**
+     * Attach a file, its content is read when it is sent
+     *
+     * @param item - test item the attachment belongs to
+     * @param file - file to attach
+     * @param message - text of the log message
+     * @param level - log level
+     */
+    void attach(ItemHandle item, java.io.File file, String message, String level) {
+        submit(new Attachment(item, file.getName(), Files.asByteSource(file), message, level, System.currentTimeMillis()));
+    }
+
+    /**
+     * Attach data embedded by a step
+     *
+     * @param item - test item the attachment belongs to
+     * @param mimeType - MIME type of the data
+     * @param data - content of the attachment
+     */
+    void embed(ItemHandle item, String mimeType, byte[] data) {
+        submit(new Attachment(item, embeddingName(mimeType), ByteSource.wrap(data), EMBEDDING_NAME, "UNKNOWN",
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Block until all attachments submitted so far have been sent
+     */
+    void flush() {
+        await(mark());
+    }
+
+    /**
+     * Mark the attachments submitted so far, to wait for them on another thread, see {@link LogPipeline#mark()}
+     *
+     * @return latch counted down once the attachments submitted before the mark have been sent
+     */
+    CountDownLatch mark() {
+        Attachment marker = Attachment.marker();
+        if (!async || closed) {
+            marker.done.countDown();
+            return marker.done;
+        }
+        try {
+            queue.put(marker);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while marking attachment queue", ex);
+            marker.done.countDown();
+        }
+        return marker.done;
+    }
+
+    /**
+     * @param mark - mark returned by {@link #mark()}
+     */
+    void await(CountDownLatch mark) {
+        try {
+            mark.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while flushing attachment queue", ex);
+        }
+    }
+
+    /**
+     * Send all pending attachments and stop the background thread
+     */
+    @Override
+    public void close() {
+        if (async && !closed) {
+            await(mark());
+            closed = true;
+            worker.interrupt();
+        }
+    }
+
+    private void submit(final Attachment attachment) {
+        if (attachment.item == null) {
+            return;
+        }
+        if (Spool.isEnabled()) {
+            logPipeline.log(attachment.item, attachment.message + " [" + attachment.name + "]", attachment.level);
+            return;
+        }
+        if (!async || closed) {
+            deferred.execute(new Runnable() {
+                @Override
+                public void run() {
+                    upload(attachment);
+                }
+            });
+            return;
+        }
+        try {
+            queue.put(attachment);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while waiting for attachment queue, sending " + attachment.name + " directly", ex);
+            upload(attachment);
+        }
+    }
+
+    private void uploadLoop() {
+        while (!closed) {
+            Attachment attachment;
+            try {
+                attachment = queue.take();
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (attachment.done != null) {
+                attachment.done.countDown();
+            } else {
+                upload(attachment);
+            }
+        }
+    }
+
+    private void upload(Attachment attachment) {
+        String itemId;
+        try {
+            itemId = attachment.item.get();
+        } catch (IllegalStateException ex) {
+            LOGGER.debug("Attachment dropped", ex);
+            return;
+        }
+        String hash = null;
+        if (dedup) {
+            try {
+                hash = attachment.content.hash(Hashing.sha1()).toString();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not read attachment " + attachment.name, ex);
+                return;
+            }
+            String uploaded = LaunchContext.get().reserveAttachment(hash, attachment.name);
+            if (uploaded != null) {
+                ReporterMetrics.increment("attachment.deduplicated");
+                // sent right away, a flush of the log pipeline may be waited for already
+                send(attachment, itemId, attachment.message + " [" + attachment.name + " has the same content as "
+                        + uploaded + " attached before]", null);
+                return;
+            }
+        }
+
+        SaveLogRQ.File file = new SaveLogRQ.File();
+        file.setName(attachment.name);
+        file.setContent(attachment.content);
+        long start = ReporterMetrics.start();
+        boolean sent = send(attachment, itemId, attachment.message, file);
+        ReporterMetrics.record("attachment.upload", start);
+        if (!sent && hash != null) {
+            LaunchContext.get().releaseAttachment(hash, attachment.name);
+        }
+    }
+
+    private static boolean send(Attachment attachment, String itemId, String message, SaveLogRQ.File file) {
+        SaveLogRQ rq = new SaveLogRQ();
+        rq.setTestItemId(itemId);
+        rq.setMessage(message);
+        rq.setLevel(attachment.level);
+        rq.setLogTime(new Date(attachment.time));
+        rq.setFile(file);
+        try {
+            ReportPortalClient.get().saveLogs(Collections.singletonList(rq));
+            return true;
+        } catch (Exception ex) {
+            LOGGER.debug("Could not send attachment " + attachment.name, ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return file name of an embedding, the extension lets Report Portal show the content
+     */
+    private static String embeddingName(String mimeType) {
+        if (mimeType == null || mimeType.indexOf('/') < 0) {
+            return EMBEDDING_NAME;
+        }
+        String subtype = mimeType.substring(mimeType.indexOf('/') + 1).split("[;+]")[0].trim();
+        return EMBEDDING_NAME + "." + ("plain".equals(subtype) ? "txt" : subtype);
+    }
+
+    private static final class Attachment {
+        private final ItemHandle item;
+        private final String name;
+        private final ByteSource content;
+        private final String message;
+        private final String level;
+        private final long time;
+        private final CountDownLatch done;
+
+        private Attachment(ItemHandle item, String name, ByteSource content, String message, String level, long time) {
+            this(item, name, content, message, level, time, null);
+        }
+
+        private Attachment(ItemHandle item, String name, ByteSource content, String message, String level, long time,
+                           CountDownLatch done) {
+            this.item = item;
+            this.name = name;
+            this.content = content;
+            this.message = message;
+            this.level = level;
+            this.time = time;
+            this.done = done;
+        }
+
+        /**
+         * @return attachment the worker counts down once everything queued before it has been sent
+         */
+        private static Attachment marker() {
+            return new Attachment(null, null, null, null, null, 0, new CountDownLatch(1));
+        }
+    }
+}
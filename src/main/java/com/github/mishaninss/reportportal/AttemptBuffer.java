@@ -0,0 +1,330 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Holds log messages of a scenario that can still be retried, so failed attempts don't stream their
+ * logs one request at a time. Up to {@code rp.retry.buffer.size} messages are kept in memory, the rest
+ * is written to a file in ./target.
+ * <p>
+ * When the scenario is finished for good the messages are sent with batch requests.
+ * {@code rp.retry.logs} defines what happens to the messages of the failed attempts:
+ * <ul>
+ * <li>SEND - they are sent like the messages of the last attempt (default)</li>
+ * <li>SUMMARY - they are replaced with one message per failed attempt</li>
+ * <li>ATTACHMENT - they are sent as a single text attachment</li>
+ * </ul>
+ */
+final class AttemptBuffer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttemptBuffer.class);
+
+    static final String MODE_PROPERTY_NAME = "rp.retry.logs";
+    static final String CAPACITY_PROPERTY_NAME = "rp.retry.buffer.size";
+
+    private static final int DEFAULT_CAPACITY = 1000;
+    private static final java.io.File SPILL_DIR = new java.io.File("./target");
+    private static final String ATTACHMENT_NAME = "failed-attempts.log";
+
+    enum Mode {
+        SEND, SUMMARY, ATTACHMENT
+    }
+
+    private final Mode mode;
+    private final int capacity;
+    private final int batchSize;
+    private List<Entry> entries = new ArrayList<>();
+    private java.io.File spillFile;
+    private DataOutputStream spill;
+
+    AttemptBuffer() {
+        mode = Mode.valueOf(SystemProperties.getString(MODE_PROPERTY_NAME, Mode.SEND.name()).toUpperCase());
+        capacity = Math.max(0, SystemProperties.getInt(CAPACITY_PROPERTY_NAME, DEFAULT_CAPACITY));
+        batchSize = Math.max(1, SystemProperties.getInt(LogPipeline.BATCH_SIZE_PROPERTY_NAME, LogPipeline.DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Keep a log message until the scenario is finished
+     *
+     * @param attempt - number of the retry the message belongs to, 0 for the first run
+     * @param message - text of the message
+     * @param level - log level
+     */
+    void add(int attempt, String message, String level) {
+        Entry entry = new Entry(attempt, message, level, System.currentTimeMillis());
+        if (entries.size() < capacity) {
+            entries.add(entry);
+            return;
+        }
+        try {
+            if (spill == null) {
+                spillFile = java.io.File.createTempFile("rp_attempts_", ".spill", SPILL_DIR);
+                spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+            }
+            entry.write(spill);
+        } catch (IOException ex) {
+            LOGGER.debug("Could not spill log message, keeping it in memory", ex);
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Take all kept messages, the buffer is empty afterwards
+     *
+     * @param lastAttempt - number of the attempt that finished the scenario
+     * @return messages to be sent once the scenario item id is known
+     */
+    Attempts take(int lastAttempt) {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close spill file", ex);
+            }
+        }
+        Attempts attempts = new Attempts(mode, batchSize, lastAttempt, entries, spillFile);
+        entries = new ArrayList<>();
+        spillFile = null;
+        spill = null;
+        return attempts;
+    }
+
+    /**
+     * Messages of all attempts of a finished scenario
+     */
+    static final class Attempts {
+        private final Mode mode;
+        private final int batchSize;
+        private final int lastAttempt;
+        private final List<Entry> entries;
+        private final java.io.File spillFile;
+
+        private Attempts(Mode mode, int batchSize, int lastAttempt, List<Entry> entries, java.io.File spillFile) {
+            this.mode = mode;
+            this.batchSize = batchSize;
+            this.lastAttempt = lastAttempt;
+            this.entries = entries;
+            this.spillFile = spillFile;
+        }
+
+        /**
+         * Send the messages to the scenario item
+         *
+         * @param itemId - id of the scenario item
+         */
+        void send(String itemId) {
+            if (entries.isEmpty() && spillFile == null) {
+                return;
+            }
+            Sender sender = new Sender(itemId);
+            try {
+                for (Entry entry : entries) {
+                    sender.add(entry);
+                }
+                if (spillFile != null) {
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)))) {
+                        while (true) {
+                            Entry entry;
+                            try {
+                                entry = Entry.read(in);
+                            } catch (EOFException ex) {
+                                break;
+                            }
+                            sender.add(entry);
+                        }
+                    }
+                }
+                sender.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not send log messages of scenario attempts", ex);
+            } finally {
+                sender.cleanUp();
+                FileUtils.deleteQuietly(spillFile);
+            }
+        }
+
+        /**
+         * Collects requests, collapsing failed attempts according to the mode
+         */
+        private final class Sender {
+            private final String itemId;
+            private final List<SaveLogRQ> batch = new ArrayList<>();
+            private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+            private int collapsedAttempt = -1;
+            private int collapsedCount;
+            private long collapsedTime;
+            private java.io.File attachmentFile;
+            private Writer attachment;
+            private long attachmentTime;
+
+            private Sender(String itemId) {
+                this.itemId = itemId;
+            }
+
+            private void add(Entry entry) throws IOException {
+                if (mode == Mode.SEND || entry.attempt >= lastAttempt) {
+                    finishSummary();
+                    finishAttachment();
+                    add(entry.toRequest(itemId));
+                    return;
+                }
+                if (mode == Mode.SUMMARY) {
+                    if (entry.attempt != collapsedAttempt) {
+                        finishSummary();
+                        collapsedAttempt = entry.attempt;
+                        collapsedTime = entry.time;
+                    }
+                    collapsedCount++;
+                    return;
+                }
+                if (attachment == null) {
+                    attachmentFile = java.io.File.createTempFile("rp_attempts_", ".log", SPILL_DIR);
+                    attachment = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(attachmentFile), StandardCharsets.UTF_8));
+                    attachmentTime = entry.time;
+                }
+                attachment.write(timeFormat.format(new Date(entry.time)) + " [attempt " + (entry.attempt + 1) + "] "
+                        + entry.level + " " + entry.message + System.lineSeparator());
+            }
+
+            private void finishSummary() throws IOException {
+                if (collapsedAttempt < 0) {
+                    return;
+                }
+                add(new Entry(collapsedAttempt, "Attempt " + (collapsedAttempt + 1) + " failed, "
+                        + collapsedCount + " log messages collapsed", "INFO", collapsedTime).toRequest(itemId));
+                collapsedAttempt = -1;
+                collapsedCount = 0;
+            }
+
+            private void finishAttachment() throws IOException {
+                if (attachment == null) {
+                    return;
+                }
+                attachment.close();
+                attachment = null;
+                SaveLogRQ rq = new Entry(0, "Logs of " + lastAttempt + " failed attempts", "INFO", attachmentTime).toRequest(itemId);
+                SaveLogRQ.File file = new SaveLogRQ.File();
+                file.setName(ATTACHMENT_NAME);
+                file.setContent(com.google.common.io.Files.asByteSource(attachmentFile));
+                rq.setFile(file);
+                add(rq);
+                // the content is read when the request is sent
+                flush();
+                FileUtils.deleteQuietly(attachmentFile);
+                attachmentFile = null;
+            }
+
+            private void add(SaveLogRQ rq) throws IOException {
+                batch.add(rq);
+                if (batch.size() >= batchSize) {
+                    flush();
+                }
+            }
+
+            private void flush() throws IOException {
+                if (batch.isEmpty()) {
+                    return;
+                }
+                if (Spool.isEnabled()) {
+                    Spool.get().saveLogs(batch);
+                } else {
+                    ReportPortalClient.get().saveLogs(new ArrayList<>(batch));
+                }
+                batch.clear();
+            }
+
+            private void close() throws IOException {
+                finishSummary();
+                finishAttachment();
+                flush();
+            }
+
+            private void cleanUp() {
+                if (attachment != null) {
+                    try {
+                        attachment.close();
+                    } catch (IOException ex) {
+                        LOGGER.debug("Could not close attachment file", ex);
+                    }
+                }
+                FileUtils.deleteQuietly(attachmentFile);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final int attempt;
+        private final String message;
+        private final String level;
+        private final long time;
+
+        private Entry(int attempt, String message, String level, long time) {
+            this.attempt = attempt;
+            this.message = message;
+            this.level = level;
+            this.time = time;
+        }
+
+        private SaveLogRQ toRequest(String itemId) {
+            SaveLogRQ rq = new SaveLogRQ();
+            rq.setTestItemId(itemId);
+            rq.setMessage(message);
+            rq.setLevel(level);
+            rq.setLogTime(new Date(time));
+            return rq;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(attempt);
+            writeString(out, level);
+            writeString(out, message);
+            out.writeLong(time);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            int attempt = in.readInt();
+            String level = readString(in);
+            String message = readString(in);
+            return new Entry(attempt, message, level, in.readLong());
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
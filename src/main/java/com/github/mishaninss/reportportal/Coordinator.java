@@ -0,0 +1,96 @@
+package com.github.mishaninss.reportportal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Launch state shared by the forks of a test run: the launch and root suite ids, the feature items
+ * and the number of runners that haven't finished yet. See {@link Coordinators} for the implementations.
+ */
+interface Coordinator {
+
+    /**
+     * Get the launch of the run, starting it if no fork has done it yet
+     *
+     * @param starter - starts the launch and the root suite, and optionally the feature items
+     * @return ids of the launch
+     */
+    Launch joinLaunch(Callable<Launch> starter);
+
+    /**
+     * Get the item id of a feature, creating the item if no fork has done it yet.
+     * Only one fork creates the item, the others wait for its id.
+     *
+     * @param featureId - Cucumber id of the feature
+     * @param creator - starts the feature item and returns its id
+     * @return item id of the feature
+     */
+    String getOrCreateFeatureItemId(String featureId, Callable<String> creator);
+
+    /**
+     * Signal that a runner has finished
+     *
+     * @return item ids of all features if this was the last runner of the launch, null otherwise
+     */
+    List<String> leave();
+
+    /**
+     * @return true if the other forks have counted the runners of this JVM down as dead, so the launch
+     * may have been finished without them and they must not report to it any more
+     */
+    boolean isExpired();
+
+    /**
+     * Finish the launch on behalf of the runners still in progress if their forks die. Called by a runner
+     * that wasn't the last to leave; the finisher may be called when the JVM shuts down.
+     *
+     * @param finisher - finishes the launch
+     */
+    void takeOver(LaunchFinisher finisher);
+
+    /**
+     * Finishes the launch
+     */
+    interface LaunchFinisher {
+        /**
+         * @param featureItemIds - item ids of all features of the launch
+         */
+        void finish(List<String> featureItemIds);
+    }
+
+    /**
+     * Ids of a launch and its root suite, and of the feature items created together with the launch
+     */
+    final class Launch {
+        private final String launchId;
+        private final String rootSuiteId;
+        private final Map<String, String> featureItemIds;
+
+        Launch(String launchId, String rootSuiteId) {
+            this(launchId, rootSuiteId, Collections.<String, String>emptyMap());
+        }
+
+        Launch(String launchId, String rootSuiteId, Map<String, String> featureItemIds) {
+            this.launchId = launchId;
+            this.rootSuiteId = rootSuiteId;
+            this.featureItemIds = featureItemIds;
+        }
+
+        String getLaunchId() {
+            return launchId;
+        }
+
+        String getRootSuiteId() {
+            return rootSuiteId;
+        }
+
+        /**
+         * @return item ids of pre-registered features by Cucumber feature id, published with the launch
+         */
+        Map<String, String> getFeatureItemIds() {
+            return featureItemIds;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Selects the {@link Coordinator} of the JVM with {@code rp.coordinator}:
+ * <ul>
+ * <li>file - state is kept in ./target, see {@link FileCoordinator} (default)</li>
+ * <li>socket - one fork keeps the state and serves the other forks over a loopback socket, see {@link SocketCoordinator}</li>
+ * <li>memory - state is kept in memory, for runs in a single JVM, see {@link MemoryCoordinator}</li>
+ * </ul>
+ */
+final class Coordinators {
+    static final String COORDINATOR_PROPERTY_NAME = "rp.coordinator";
+    static final String RUNNERS_PROPERTY_NAME = "rp.runners";
+    static final String LINGER_PROPERTY_NAME = "rp.coordinator.linger";
+    private static final long DEFAULT_LINGER = 0;
+    private static final String RUN_CLASSES_PROPERTY_NAME = "run.classes";
+
+    private static Coordinator instance;
+
+    private Coordinators() {
+    }
+
+    /**
+     * @param forkNumber - number of the fork the JVM runs as, starting with 1
+     * @return coordinator shared by all reporters of the JVM
+     */
+    static synchronized Coordinator get(int forkNumber) {
+        if (instance == null) {
+            String type = SystemProperties.getString(COORDINATOR_PROPERTY_NAME, "file").trim().toLowerCase();
+            switch (type) {
+                case "file":
+                    instance = new FileCoordinator(forkNumber);
+                    break;
+                case "socket":
+                    instance = new SocketCoordinator();
+                    break;
+                case "memory":
+                    instance = new MemoryCoordinator();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown " + COORDINATOR_PROPERTY_NAME + " value: " + type);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return maximum time in milliseconds a fork waits on exit for the runners of other forks, {@code rp.coordinator.linger},
+     * 0 by default: a fork waits only as long as it takes the lease of a dead fork to expire, see {@link FileCoordinator}
+     */
+    static long getLinger() {
+        return SystemProperties.getLong(LINGER_PROPERTY_NAME, DEFAULT_LINGER);
+    }
+
+    /**
+     * @return number of runners of the test run, {@code rp.runners} if set, otherwise the number of classes
+     * matching the {@code run.classes} pattern
+     */
+    static int countRunners() {
+        int runners = SystemProperties.getInt(RUNNERS_PROPERTY_NAME, 0);
+        return runners > 0 ? runners : countRunClasses();
+    }
+
+    /**
+     * @return number of runner classes of the test run taken from the {@code run.classes} pattern,
+     * 0 if the pattern is not set
+     */
+    private static int countRunClasses() {
+        String runClasses = System.getProperty(RUN_CLASSES_PROPERTY_NAME);
+        if (StringUtils.isNoneBlank(runClasses)) {
+            String[] filters = runClasses.split("/");
+            String fileFilterStr = filters[filters.length - 1].trim();
+            java.io.File dir = new java.io.File("./target/test-classes");
+            IOFileFilter fileFilter = new WildcardFileFilter(fileFilterStr);
+            return FileUtils.listFiles(dir, fileFilter, TrueFileFilter.INSTANCE).size();
+        } else {
+            return 0;
+        }
+    }
+
+    static <T> T call(Callable<T> callable) {
+        try {
+            return callable.call();
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Report Portal calls a thread makes while it handles a Cucumber event in parallel mode.
+ * <p>
+ * Between {@link #begin()} and {@link #end()} the calls of a thread are collected instead of being made,
+ * and {@link #end()} makes them in order on the same thread. The reporter ends a thread's calls after it
+ * has released its lock, so the threads don't wait for each other's network I/O. Outside of
+ * {@link #begin()} and {@link #end()} every call is made right away.
+ */
+final class DeferredCalls implements Executor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredCalls.class);
+
+    private final ThreadLocal<List<Runnable>> calls = new ThreadLocal<>();
+
+    /**
+     * Start collecting the calls of the current thread
+     */
+    void begin() {
+        if (calls.get() == null) {
+            calls.set(new ArrayList<Runnable>());
+        }
+    }
+
+    /**
+     * @return true if the calls of the current thread are collected
+     */
+    boolean isActive() {
+        return calls.get() != null;
+    }
+
+    /**
+     * Make or collect a call
+     *
+     * @param call - the call
+     */
+    @Override
+    public void execute(Runnable call) {
+        List<Runnable> collected = calls.get();
+        if (collected == null) {
+            call.run();
+        } else {
+            collected.add(call);
+        }
+    }
+
+    /**
+     * Stop collecting the calls of the current thread and make the collected ones
+     */
+    void end() {
+        List<Runnable> collected = calls.get();
+        calls.remove();
+        if (collected == null) {
+            return;
+        }
+        for (Runnable call : collected) {
+            try {
+                call.run();
+            } catch (RuntimeException ex) {
+                LOGGER.debug("Report Portal call failed", ex);
+            }
+        }
+    }
+}
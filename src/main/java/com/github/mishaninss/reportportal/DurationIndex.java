@@ -0,0 +1,218 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Durations of the scenarios of previous runs, keyed by {@code featureUri:line}. Enabled with
+ * {@code rp.durations=true}, the reporter records every scenario in {@code afterScenario}, including its
+ * retries, unless the runner lease of the fork has expired, and merges its records into the index file on
+ * {@code close()}. {@link ForkPartition} uses the
+ * index to spread features across forks.
+ * <p>
+ * Feature uris are keyed as paths relative to the {@code rp.features.path} directories, the way
+ * {@link FeaturePreregistrar#findFeatureFiles()} finds them, whether Cucumber reports them with a
+ * {@code classpath:} prefix or as file paths.
+ * <p>
+ * The file, {@code rp.durations.file} ({@code ./target/rp_durations} by default), holds a magic number, the
+ * number of entries and every entry as a UTF key and its duration in ms. Point it to a git ignored file
+ * outside of {@code target} to keep the history across {@code mvn clean}. A new duration is averaged with
+ * the stored one, so one slow run doesn't overturn the history. Forks merge under an
+ * {@link InterProcessLock} and replace the file atomically.
+ */
+final class DurationIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DurationIndex.class);
+
+    static final String DURATIONS_PROPERTY_NAME = "rp.durations";
+    static final String FILE_PROPERTY_NAME = "rp.durations.file";
+
+    private static final String DEFAULT_FILE = "./target/rp_durations";
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final int MAGIC = 0x52504458;
+
+    private final java.io.File file;
+    private final Map<String, Long> durations = new HashMap<>();
+    private final Map<String, Long> featureDurations = new HashMap<>();
+
+    private DurationIndex(java.io.File file) {
+        this.file = file;
+    }
+
+    static boolean isEnabled() {
+        return SystemProperties.getBoolean(DURATIONS_PROPERTY_NAME, false);
+    }
+
+    /**
+     * @return empty index of the {@code rp.durations.file} file, to record durations in
+     */
+    static DurationIndex create() {
+        return new DurationIndex(new java.io.File(SystemProperties.getString(FILE_PROPERTY_NAME, DEFAULT_FILE)));
+    }
+
+    /**
+     * @return index with the durations stored in the {@code rp.durations.file} file
+     */
+    static DurationIndex load() {
+        DurationIndex index = create();
+        index.durations.putAll(read(index.file));
+        for (Map.Entry<String, Long> entry : index.durations.entrySet()) {
+            String key = entry.getKey();
+            String uri = key.substring(0, key.lastIndexOf(':'));
+            Long total = index.featureDurations.get(uri);
+            index.featureDurations.put(uri, total == null ? entry.getValue() : total + entry.getValue());
+        }
+        return index;
+    }
+
+    /**
+     * @return file of the index
+     */
+    java.io.File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if no duration is known
+     */
+    synchronized boolean isEmpty() {
+        return durations.isEmpty();
+    }
+
+    /**
+     * @param uri - feature uri
+     * @param line - line of the scenario
+     * @param millis - time the scenario took
+     */
+    synchronized void record(String uri, int line, long millis) {
+        durations.put(normalize(uri) + ":" + line, millis);
+    }
+
+    /**
+     * @param uri - feature uri
+     * @return total duration of the known scenarios of the feature in ms, -1 if none is known
+     */
+    synchronized long getFeatureDuration(String uri) {
+        Long total = featureDurations.get(normalize(uri));
+        return total == null ? -1 : total;
+    }
+
+    /**
+     * @param uri - feature uri as reported by Cucumber or found in a features directory
+     * @return the uri relative to its {@code rp.features.path} directory, with forward slashes
+     */
+    static String normalize(String uri) {
+        String normalized = trim(uri);
+        if (normalized.startsWith(CLASSPATH_PREFIX)) {
+            normalized = normalized.substring(CLASSPATH_PREFIX.length());
+            while (normalized.startsWith("/")) {
+                normalized = normalized.substring(1);
+            }
+            return normalized;
+        }
+        for (java.io.File dir : FeaturePreregistrar.getFeatureDirs()) {
+            String prefix = trim(dir.getPath()) + "/";
+            if (normalized.startsWith(prefix)) {
+                return normalized.substring(prefix.length());
+            }
+            if (new java.io.File(uri).isAbsolute()) {
+                try {
+                    prefix = trim(dir.getCanonicalPath()) + "/";
+                    String path = trim(new java.io.File(uri).getCanonicalPath());
+                    if (path.startsWith(prefix)) {
+                        return path.substring(prefix.length());
+                    }
+                } catch (IOException ex) {
+                    LOGGER.debug("Could not resolve feature uri " + uri, ex);
+                }
+            }
+        }
+        return normalized;
+    }
+
+    private static String trim(String path) {
+        String trimmed = path.replace('\\', '/');
+        while (trimmed.startsWith("./")) {
+            trimmed = trimmed.substring(2);
+        }
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    /**
+     * Merge the recorded durations into the index file
+     */
+    synchronized void save() {
+        if (durations.isEmpty()) {
+            return;
+        }
+        java.io.File lockFile = new java.io.File(file.getPath() + ".lock");
+        try (InterProcessLock ignored = InterProcessLock.acquire(lockFile)) {
+            Map<String, Long> merged = read(file);
+            for (Map.Entry<String, Long> entry : durations.entrySet()) {
+                Long stored = merged.get(entry.getKey());
+                merged.put(entry.getKey(), stored == null ? entry.getValue() : (stored + entry.getValue()) / 2);
+            }
+            write(merged);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.debug("Could not save scenario durations to " + file, ex);
+        }
+    }
+
+    private void write(Map<String, Long> entries) throws IOException {
+        java.io.File tmpFile = new java.io.File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt((int) Math.min(Integer.MAX_VALUE, entry.getValue()));
+            }
+        }
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Map<String, Long> read(java.io.File file) {
+        Map<String, Long> entries = new HashMap<>();
+        if (!file.isFile()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                LOGGER.debug("{} is not a duration index", file);
+                return entries;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long duration = in.readInt();
+                int separator = key.lastIndexOf(':');
+                if (separator > 0) {
+                    // keys written before uris were normalized are merged into the normalized ones
+                    entries.put(normalize(key.substring(0, separator)) + key.substring(separator), duration);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.debug("Could not read scenario durations from " + file, ex);
+        }
+        return entries;
+    }
+}
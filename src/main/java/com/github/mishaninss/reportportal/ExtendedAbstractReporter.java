@@ -3,28 +3,26 @@ package com.github.mishaninss.reportportal;
 import com.epam.reportportal.cucumber.AbstractReporter;
 import com.epam.reportportal.cucumber.Utils;
 import com.epam.reportportal.listeners.Statuses;
-import com.epam.reportportal.restclient.endpoint.RestEndpoint;
 import com.epam.reportportal.restclient.endpoint.exception.RestEndpointIOException;
-import com.epam.reportportal.service.ReportPortalService;
-import com.epam.ta.reportportal.ws.model.OperationCompletionRS;
-import com.epam.ta.reportportal.ws.model.item.UpdateTestItemRQ;
-import com.google.common.base.Supplier;
+import com.epam.ta.reportportal.ws.model.StartTestItemRQ;
+import gherkin.formatter.model.Background;
 import gherkin.formatter.model.Examples;
 import gherkin.formatter.model.Feature;
+import gherkin.formatter.model.Match;
+import gherkin.formatter.model.Result;
 import gherkin.formatter.model.Scenario;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
-import org.apache.commons.lang3.StringUtils;
+import gherkin.formatter.model.ScenarioOutline;
+import gherkin.formatter.model.Step;
+import gherkin.formatter.model.Tag;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.*;
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Extended Cucumber JVM client for Report Portal with support of parallel execution and retries
@@ -33,35 +31,73 @@ import java.util.*;
 public abstract class ExtendedAbstractReporter extends AbstractReporter {
     private static final Logger LOGGER = LoggerFactory.getLogger(ExtendedAbstractReporter.class);
 
-    private static final java.io.File LAUNCH_PROP_FILE = new java.io.File("./target/rp_launch.properties");
     private static final String LAUNCH_ID_PROPERTY_NAME = "launchId";
-    private static final String FEATURE_ID_PROPERTY_NAME = "featureId";
-    private static final String FORK_NUMBER_PROPERTY_NAME = "fork.number";
     private static final String CUCUMBER_RETRY_COUNT_PROPERTY_NAME = "cucumber.retry.count";
-    private static final String RUN_CLASSES_PROPERTY_NAME = "run.classes";
-    private static final String IN_PROGRESS_FILE_NAME = "./target/rp_launch_class_%d.inprogress";
-    private static final String FEATURE_LOCK_FILE_NAME = "./target/feature_%s.lock";
-    private static final String FEATURE_PROP_FILE_NAME = "./target/feature_%s.properties";
     static final String ROOT_SUITE_ID_PROPERTY_NAME = "rootSuiteId";
 
+    private static final String PARALLEL_PROPERTY_NAME = "rp.parallel";
+    private static final String COALESCE_STEPS_PROPERTY_NAME = "rp.steps.coalesce";
+    private static final Field OUTLINE_ITERATIONS_FIELD = FieldUtils.getField(AbstractReporter.class, "outlineIterations", true);
+    private static final Field IN_BACKGROUND_FIELD = FieldUtils.getField(AbstractReporter.class, "inBackground", true);
+
     private Scenario currentGherkinScenario;
     protected Properties launchProperties = new Properties();
-    private Properties featureProperties = new Properties();
+    private final DeferredCalls deferredCalls = new DeferredCalls();
+    private final LogPipeline logPipeline = LogPipeline.create(deferredCalls);
+    private final AttachmentUploader attachmentUploader = AttachmentUploader.create(logPipeline, deferredCalls);
+    private final ItemDispatcher itemDispatcher = ItemDispatcher.create(deferredCalls);
+    private final ItemUpdates itemUpdates = new ItemUpdates(itemDispatcher);
+    private AttemptBuffer attemptBuffer = new AttemptBuffer();
+    private final ThreadLocal<ThreadState> threadStates =
+            SystemProperties.getBoolean(PARALLEL_PROPERTY_NAME, false) ? new ThreadLocal<ThreadState>() : null;
+    private final ReentrantLock threadLock = new ReentrantLock();
+    private final boolean coalesceSteps = SystemProperties.getBoolean(COALESCE_STEPS_PROPERTY_NAME, false);
+    private final DurationIndex durationIndex = DurationIndex.isEnabled() ? DurationIndex.create() : null;
+    private ItemHandle currentFeatureItem;
+    private int forkNumber = 1;
     protected int retryNumber = 0;
     protected int maxRetryCount = 0;
 
     protected static class ExtendedScenarioModel extends ScenarioModel {
+        private final ItemHandle item;
         private Set<String> tags;
         private String description;
+        private final List<String> stepLines = new ArrayList<>();
+        private final long startTime = System.currentTimeMillis();
 
         ExtendedScenarioModel(String newId) {
             super(newId);
+            item = ItemHandle.of(newId);
+        }
+
+        ExtendedScenarioModel(ItemHandle item) {
+            super(null);
+            this.item = item;
+        }
+
+        /**
+         * @return id of the scenario item, waits for the item to be started
+         */
+        @Override
+        public String getId() {
+            return item.get();
+        }
+
+        public ItemHandle getItem() {
+            return item;
         }
 
         public String getDescription() {
             return description;
         }
 
+        /**
+         * @return time the scenario was started at, its retries included
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
         public void setDescription(String description) {
             this.description = description;
         }
@@ -81,189 +117,270 @@ public abstract class ExtendedAbstractReporter extends AbstractReporter {
                 LOGGER.debug("Could not set scenario status to " + status, e);
             }
         }
-    }
 
-    protected ExtendedAbstractReporter() {
-        super();
-        try {
-            maxRetryCount = Integer.parseInt(System.getProperty(CUCUMBER_RETRY_COUNT_PROPERTY_NAME, "0"));
-        } catch (NumberFormatException e){
-            maxRetryCount = 0;
+        void addStepLine(String line) {
+            stepLines.add(line);
         }
-    }
 
-    private static int calculateRunClassesCount(){
-        String runClasses = System.getProperty(RUN_CLASSES_PROPERTY_NAME);
-        if (StringUtils.isNoneBlank(runClasses)) {
-            String[] filters = runClasses.split("/");
-            String fileFilterStr = filters[filters.length - 1].trim();
-            java.io.File dir = new java.io.File("./target/test-classes");
-            IOFileFilter fileFilter = new WildcardFileFilter(fileFilterStr);
-            return FileUtils.listFiles(dir, fileFilter, TrueFileFilter.INSTANCE).size();
-        } else {
-            return 0;
+        /**
+         * @return collected step and hook lines joined into one message, null if there are none
+         */
+        String takeStepLines() {
+            if (stepLines.isEmpty()) {
+                return null;
+            }
+            ReporterMetrics.add("log.coalesced", stepLines.size());
+            StringBuilder message = new StringBuilder();
+            for (String line : stepLines) {
+                if (message.length() > 0) {
+                    message.append('\n');
+                }
+                message.append(line);
+            }
+            stepLines.clear();
+            return message.toString();
         }
     }
 
-    private static void createTestClassesMarkers(){
-        int runClassesCount = calculateRunClassesCount();
-        for (int i=1; i<=runClassesCount; i++){
-            String filename = String.format(IN_PROGRESS_FILE_NAME, i);
-            java.io.File file = new java.io.File(filename);
-            try {
-                FileUtils.write(file, "in progress");
-            } catch (IOException ex){
-                throw new RuntimeException("Could not create in progress file", ex);
-            }
+    /**
+     * Feature and scenario state of one thread in parallel mode
+     */
+    private static final class ThreadState {
+        private ScenarioModel currentScenario;
+        private String currentFeatureUri;
+        private String currentFeatureId;
+        private String stepPrefix;
+        private Object outlineIterations;
+        private Object inBackground;
+        private Scenario currentGherkinScenario;
+        private ItemHandle currentFeatureItem;
+        private int retryNumber;
+        private AttemptBuffer attemptBuffer = new AttemptBuffer();
+
+        private void restore(ExtendedAbstractReporter reporter) throws IllegalAccessException {
+            reporter.currentScenario = currentScenario;
+            reporter.currentFeatureUri = currentFeatureUri;
+            reporter.currentFeatureId = currentFeatureId;
+            reporter.stepPrefix = stepPrefix;
+            writeField(OUTLINE_ITERATIONS_FIELD, reporter, outlineIterations);
+            writeField(IN_BACKGROUND_FIELD, reporter, inBackground);
+            reporter.currentGherkinScenario = currentGherkinScenario;
+            reporter.currentFeatureItem = currentFeatureItem;
+            reporter.retryNumber = retryNumber;
+            reporter.attemptBuffer = attemptBuffer;
         }
-    }
 
-    private void readLaunchProperties(){
-        if (LAUNCH_PROP_FILE.exists()){
-            try {
-                launchProperties = loadProperties(LAUNCH_PROP_FILE);
-            } catch (IOException ex) {
-                throw new RuntimeException("Could not load launch properties file", ex);
+        private void save(ExtendedAbstractReporter reporter) throws IllegalAccessException {
+            currentScenario = reporter.currentScenario;
+            currentFeatureUri = reporter.currentFeatureUri;
+            currentFeatureId = reporter.currentFeatureId;
+            stepPrefix = reporter.stepPrefix;
+            outlineIterations = readField(OUTLINE_ITERATIONS_FIELD, reporter);
+            inBackground = readField(IN_BACKGROUND_FIELD, reporter);
+            currentGherkinScenario = reporter.currentGherkinScenario;
+            currentFeatureItem = reporter.currentFeatureItem;
+            retryNumber = reporter.retryNumber;
+            attemptBuffer = reporter.attemptBuffer;
+        }
+
+        // private agent fields, not every agent version has them
+        private static void writeField(Field field, Object target, Object value) throws IllegalAccessException {
+            if (field != null) {
+                field.set(target, value);
             }
         }
+
+        private static Object readField(Field field, Object target) throws IllegalAccessException {
+            return field == null ? null : field.get(target);
+        }
     }
 
-    private void createLaunchPropFile(){
-        if (!LAUNCH_PROP_FILE.exists()){
-            try (FileOutputStream fos = new FileOutputStream(LAUNCH_PROP_FILE)){
-                launchProperties.store(fos, null);
-            } catch (IOException ex) {
-                throw new RuntimeException("Could not save launch properties file", ex);
-            }
+    protected ExtendedAbstractReporter() {
+        super();
+        try {
+            maxRetryCount = Integer.parseInt(System.getProperty(CUCUMBER_RETRY_COUNT_PROPERTY_NAME, "0"));
+        } catch (NumberFormatException e){
+            maxRetryCount = 0;
         }
     }
 
-    private void updateTestItem(String itemId, String description, Set<String> tags) throws IllegalAccessException, RestEndpointIOException {
-        Supplier<ReportPortalService> reportPortalService = (Supplier<ReportPortalService>) FieldUtils.readStaticField(Utils.class, "reportPortalService", true);
-        RestEndpoint endpoint = (RestEndpoint) FieldUtils.readField(reportPortalService.get(), "endpoint", true);
-        String apiBase = (String) FieldUtils.readField(reportPortalService.get(), "apiBase", true);
-        String project = (String) FieldUtils.readField(reportPortalService.get(), "project", true);
-        UpdateTestItemRQ rq = new UpdateTestItemRQ();
+    private static String startItem(String launchId, String parentId, String name, String description, List<Tag> tags,
+                                    String type, Date startTime){
+        StartTestItemRQ rq = new StartTestItemRQ();
+        rq.setLaunchId(launchId);
+        rq.setName(name);
         rq.setDescription(description);
-        rq.setTags(tags);
-        endpoint.put(apiBase + "/" + project + "/item/" + itemId + "/update", rq, OperationCompletionRS.class);
-    }
-
-    private static void closeAllFeatures(){
-        Collection<java.io.File> featurePropertiesFiles = FileUtils.listFiles(new java.io.File("./target"), new String[]{"properties"}, false);
-        for (java.io.File file: featurePropertiesFiles){
-            if (file.getName().startsWith("feature_")){
-                try {
-                    Properties featureProperties = loadProperties(file);
-                    String featureId = featureProperties.getProperty(FEATURE_ID_PROPERTY_NAME);
-                    if (StringUtils.isNoneBlank(featureId)){
-                        Utils.finishTestItem(featureId);
-                    }
-                } catch (IOException ex){
-                    throw new RuntimeException("Could not load feature properties", ex);
-                }
-            }
+        rq.setTags(Utils.extractTags(tags));
+        rq.setType(type);
+        rq.setStartTime(startTime);
+        if (Spool.isEnabled()) {
+            return Spool.get().startTestItem(parentId, rq);
+        }
+        long start = ReporterMetrics.start();
+        try {
+            return Utils.startTestItem(rq, parentId);
+        } finally {
+            ReporterMetrics.record("item.start", start);
         }
     }
 
-    private static boolean waitForLaunchProperties(){
-        if (!LAUNCH_PROP_FILE.exists()){
-            Date start = new Date();
-            while(!LAUNCH_PROP_FILE.exists() && (new Date().getTime()-start.getTime()<60000)){
-                sleep(2000);
+    protected abstract void setRootItemId(String rootItemId);
+
+    /**
+     * Start the items of all features of the run, see {@link FeaturePreregistrar}
+     *
+     * @return item ids by Cucumber feature id
+     */
+    private Map<String, String> preregisterFeatures(final String launchId, final String rootItemId) {
+        final String type = getFeatureTestItemType();
+        final Date startTime = Calendar.getInstance().getTime();
+        return FeaturePreregistrar.register(new FeaturePreregistrar.Starter() {
+            @Override
+            public String start(String uri, Feature feature) {
+                String name = Utils.buildStatementName(feature, null, ExtendedAbstractReporter.COLON_INFIX, null);
+                return startItem(launchId, rootItemId, name, uri, feature.getTags(), type, startTime);
             }
-            return LAUNCH_PROP_FILE.exists();
-        } else {
-            return true;
-        }
+        });
     }
 
-    private void createFeaturePropFile(Feature feature){
-        String featureId = feature.getId();
+    /**
+     * @return true if the runners of the JVM have been counted down as dead by other forks, which may have
+     * finished the launch, so nothing is reported any more, see {@link Coordinator#isExpired()}
+     */
+    private boolean isExpired() {
+        return currentLaunchId != null && !Spool.isEnabled() && LaunchContext.get().isExpired();
+    }
 
-        java.io.File featureLockFile = new java.io.File(String.format(FEATURE_LOCK_FILE_NAME, featureId));
+    /**
+     * Push the journals of the launch to Report Portal
+     *
+     * @param featureItemIds - local ids of the features
+     * @param skippedItemIds - local ids of the features to finish as skipped
+     * @return Report Portal item id of every local item id or null if the journals could not be replayed
+     */
+    private Map<String, String> replaySpool(List<String> featureItemIds, List<String> skippedItemIds) {
+        java.io.File dir = Spool.getDir(currentLaunchId);
         try {
-            FileUtils.write(featureLockFile, "in progress");
-        } catch (IOException ex) {
-            throw new RuntimeException("Could create feature lock file", ex);
+            return SpoolReplayer.replay(dir);
+        } catch (RuntimeException ex) {
+            SpoolReplayer.deferFinish(dir, currentLaunchId, getRootItemId(), featureItemIds, skippedItemIds);
+            LOGGER.warn("Could not replay spool journals, the launch is left unfinished. "
+                    + "Run " + SpoolReplayer.class.getName() + " to push the rest of them and finish the launch", ex);
+            return null;
         }
+    }
 
-        currentFeatureId = Utils.startNonLeafNode(currentLaunchId, getRootItemId(),
-                Utils.buildStatementName(feature, null, ExtendedAbstractReporter.COLON_INFIX, null), currentFeatureUri, feature.getTags(),
-                getFeatureTestItemType());
-
-        featureProperties = new Properties();
-        featureProperties.setProperty(FEATURE_ID_PROPERTY_NAME, currentFeatureId);
-        java.io.File featurePropertiesFile = new java.io.File(String.format(FEATURE_PROP_FILE_NAME, featureId));
-        try (FileOutputStream fos = new FileOutputStream(featurePropertiesFile)){
-            featureProperties.store(fos, null);
-        } catch (IOException ex) {
-            throw new RuntimeException("Could save feature properties file", ex);
+    /**
+     * Send a log message to the current log destination. While the current scenario can be retried
+     * the message is kept until the scenario is finished.
+     *
+     * @param message - text of the message
+     * @param level - log level
+     */
+    protected void sendLog(String message, String level) {
+        if (maxRetryCount > 0 && currentScenario != null) {
+            attemptBuffer.add(retryNumber, message, level);
+        } else {
+            logPipeline.log(getLogDestinationItem(), message, level);
         }
+    }
 
-        FileUtils.deleteQuietly(featureLockFile);
+    /**
+     * Attach a file to the current log destination, e.g. a screenshot or a log file.
+     * The file is streamed when it is sent, see {@link AttachmentUploader}.
+     *
+     * @param file - file to attach, must stay in place until the current scenario has finished
+     * @param message - text of the log message
+     * @param level - log level
+     */
+    protected void sendAttachment(java.io.File file, String message, String level) {
+        attachmentUploader.attach(getLogDestinationItem(), file, message, level);
     }
 
-    private boolean readFeatureProperties(String featureId){
-        java.io.File featurePropertiesFile = new java.io.File(String.format(FEATURE_PROP_FILE_NAME, featureId));
-        if (featurePropertiesFile.exists()){
-            try {
-                featureProperties = loadProperties(featurePropertiesFile);
-                return true;
-            } catch (IOException ex) {
-                LOGGER.debug("Could not load feature properties", ex);
-                return false;
-            }
+    /**
+     * Log a step or hook line. With {@code rp.steps.coalesce=true} the lines of a scenario are collected
+     * and sent as one message when the scenario finishes or a step fails, see {@link #flushStepLog()}.
+     *
+     * @param message - text of the line
+     */
+    protected void sendStepLog(String message) {
+        if (coalesceSteps && currentScenario != null) {
+            ((ExtendedScenarioModel) currentScenario).addStepLine(message);
         } else {
-            return false;
+            sendLog(message, "INFO");
         }
     }
 
-    private static Properties loadProperties(java.io.File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file)){
-            Properties properties = new Properties();
-            properties.load(fis);
-            return properties;
+    /**
+     * Send the step and hook lines collected for the current scenario
+     */
+    protected void flushStepLog() {
+        if (coalesceSteps && currentScenario != null) {
+            String lines = ((ExtendedScenarioModel) currentScenario).takeStepLines();
+            if (lines != null) {
+                sendLog(lines, "INFO");
+            }
         }
     }
 
-    private boolean loadFeatureProperties(String featureId)
-    {
-        java.io.File featurePropertiesFile = new java.io.File(String.format(FEATURE_PROP_FILE_NAME, featureId));
-        if (featurePropertiesFile.exists()){
-            return readFeatureProperties(featureId);
-        } else {
-            java.io.File featureInProgressFile = new java.io.File(String.format(FEATURE_LOCK_FILE_NAME, featureId));
-            if (featureInProgressFile.exists()) {
-                Date start = new Date();
-                while (featureInProgressFile.exists() && (new Date().getTime() - start.getTime() < 60000)) {
-                    sleep(2000);
-                }
-                return readFeatureProperties(featureId);
-            } else {
-                return false;
-            }
-        }
+    /**
+     * @return test item log messages are sent to, by default the item returned by {@link #getLogDestination()}
+     */
+    protected ItemHandle getLogDestinationItem() {
+        return ItemHandle.of(getLogDestination());
     }
 
-    private String formatExampleString(List<String> cells){
-        String value = " " + Arrays.toString(cells.toArray());
-        if (value.length() > 156){
-            value = value.substring(0, 152) + "...]";
+    /**
+     * In parallel mode ({@code rp.parallel=true}) one reporter receives the events of several threads.
+     * Every event is handled under a lock with the feature and scenario state of the calling thread
+     * swapped into the reporter fields, while the launch and the features stay shared.
+     * The Report Portal calls of an event are collected with {@link DeferredCalls} and made by the calling
+     * thread once it has released the lock, so threads only wait for each other's event handling.
+     */
+    private void enterThread() {
+        if (threadStates == null) {
+            return;
+        }
+        threadLock.lock();
+        if (threadLock.getHoldCount() > 1) {
+            return;
+        }
+        ThreadState state = threadStates.get();
+        if (state == null) {
+            state = new ThreadState();
+            threadStates.set(state);
+        }
+        try {
+            state.restore(this);
+        } catch (IllegalAccessException ex) {
+            threadLock.unlock();
+            throw new IllegalStateException("Could not restore reporter state", ex);
+        }
+        if (!Spool.isEnabled()) {
+            // spooled calls only write the journal and their local ids are needed right away
+            deferredCalls.begin();
         }
-        return value;
     }
 
-    private static void sleep(int timeout){
+    private void exitThread() {
+        if (threadStates == null) {
+            return;
+        }
+        boolean outermost = threadLock.getHoldCount() == 1;
         try {
-            Thread.sleep(2000);
-        } catch (InterruptedException ex) {
-            LOGGER.debug("Ignored InterruptedException exception", ex);
+            if (outermost) {
+                threadStates.get().save(this);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Could not save reporter state", ex);
+        } finally {
+            threadLock.unlock();
+            if (outermost) {
+                deferredCalls.end();
+            }
         }
     }
 
-    protected abstract void setRootItemId(String rootItemId);
-
     //****************************************************************************
     // Overwrote original client methods
     //****************************************************************************
@@ -274,12 +391,35 @@ public abstract class ExtendedAbstractReporter extends AbstractReporter {
      * @param feature - current Cucumber feature
      */
     @Override
-    protected void beforeFeature(Feature feature) {
-        if (loadFeatureProperties(feature.getId())){
-            currentFeatureId = featureProperties.getProperty(FEATURE_ID_PROPERTY_NAME);
-        } else {
-            createFeaturePropFile(feature);
+    protected void beforeFeature(final Feature feature) {
+        final LaunchContext context = LaunchContext.get();
+        final String launchId = currentLaunchId;
+        final String rootItemId = getRootItemId();
+        final String name = Utils.buildStatementName(feature, null, ExtendedAbstractReporter.COLON_INFIX, null);
+        final String description = currentFeatureUri;
+        final String type = getFeatureTestItemType();
+        final Date startTime = Calendar.getInstance().getTime();
+        if (isExpired()) {
+            currentFeatureItem = ItemHandle.failed(new IllegalStateException("Runner lease has expired"));
+            currentFeatureId = null;
+            return;
         }
+        currentFeatureItem = itemDispatcher.start(new Callable<String>() {
+            @Override
+            public String call() {
+                String itemId = context.getOrCreateFeatureItemId(feature.getId(), new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return startItem(launchId, rootItemId, name, description, feature.getTags(), type, startTime);
+                    }
+                });
+                if (itemId != null && FeaturePreregistrar.isEnabled()) {
+                    FeaturePreregistrar.markStarted(launchId, itemId);
+                }
+                return itemId;
+            }
+        });
+        currentFeatureId = currentFeatureItem.peek();
     }
 
     /**
@@ -287,6 +427,7 @@ public abstract class ExtendedAbstractReporter extends AbstractReporter {
      */
     @Override
     protected void afterFeature() {
+        currentFeatureItem = null;
         currentFeatureId = null;
     }
 
@@ -298,13 +439,28 @@ public abstract class ExtendedAbstractReporter extends AbstractReporter {
      *            - suffix to append to scenario name, can be null
      */
     @Override
-    protected void beforeScenario(Scenario scenario, String outlineIteration) {
-        String id = Utils.startNonLeafNode(currentLaunchId, currentFeatureId,
-                Utils.buildStatementName(scenario, null, ExtendedAbstractReporter.COLON_INFIX, outlineIteration),
-                currentFeatureUri + ":" + scenario.getLine(), scenario.getTags(), getScenarioTestItemType());
-        currentScenario = new ExtendedScenarioModel(id);
+    protected void beforeScenario(final Scenario scenario, String outlineIteration) {
+        final ItemHandle feature = currentFeatureItem;
+        final String launchId = currentLaunchId;
+        final String name = Utils.buildStatementName(scenario, null, ExtendedAbstractReporter.COLON_INFIX, outlineIteration);
+        final String description = currentFeatureUri + ":" + scenario.getLine();
+        final String type = getScenarioTestItemType();
+        final Date startTime = Calendar.getInstance().getTime();
+        ItemHandle item;
+        if (isExpired()) {
+            // logs and the finish of a failed item are dropped
+            item = ItemHandle.failed(new IllegalStateException("Runner lease has expired"));
+        } else {
+            item = itemDispatcher.start(new Callable<String>() {
+                @Override
+                public String call() {
+                    return startItem(launchId, feature.get(), name, description, scenario.getTags(), type, startTime);
+                }
+            });
+        }
+        currentScenario = new ExtendedScenarioModel(item);
         ((ExtendedScenarioModel)currentScenario).setTags(Utils.extractTags(scenario.getTags()));
-        ((ExtendedScenarioModel)currentScenario).setDescription(currentFeatureUri + ":" + scenario.getLine());
+        ((ExtendedScenarioModel)currentScenario).setDescription(description);
     }
 
     /**
@@ -312,24 +468,85 @@ public abstract class ExtendedAbstractReporter extends AbstractReporter {
      */
     @Override
     protected void afterScenario() {
+        flushStepLog();
         if (Statuses.FAILED.equalsIgnoreCase(currentScenario.getStatus()) && retryNumber < maxRetryCount){
             ((ExtendedScenarioModel)currentScenario).setStatus(Statuses.PASSED);
             return;
         }
 
-        if (currentScenario.getStatus().equals(Statuses.PASSED) && retryNumber > 0) {
-            Set<String> tags = ((ExtendedScenarioModel)currentScenario).getTags();
+        final ExtendedScenarioModel scenario = (ExtendedScenarioModel) currentScenario;
+        // a fork counted down as dead has been stalled, its durations would skew the history
+        if (durationIndex != null && currentGherkinScenario != null && !isExpired()) {
+            durationIndex.record(currentFeatureUri, currentGherkinScenario.getLine(), System.currentTimeMillis() - scenario.getStartTime());
+        }
+        if (scenario.getStatus().equals(Statuses.PASSED) && retryNumber > 0) {
+            Set<String> tags = scenario.getTags();
             tags.add("@Retry");
-            try {
-                updateTestItem(currentScenario.getId(), ((ExtendedScenarioModel)currentScenario).getDescription(), tags);
-            } catch (Exception ex) {
-                LOGGER.debug("Unable to update test item", ex);
-            }
+            itemUpdates.update(scenario.getItem(), scenario.getDescription(), tags);
         }
 
+        final AttemptBuffer.Attempts attempts = attemptBuffer.take(retryNumber);
         currentGherkinScenario = null;
         retryNumber = 0;
-        super.afterScenario();
+        if (Spool.isEnabled()) {
+            attempts.send(scenario.getId());
+            Spool.get().finishTestItem(scenario.getId(), scenario.getStatus(), scenario.getIssueComments(),
+                    Calendar.getInstance().getTime());
+        } else {
+            final String status = scenario.getStatus();
+            final String issueComments = scenario.getIssueComments();
+            final Date endTime = Calendar.getInstance().getTime();
+            // marked here, a mark taken by the dispatcher would wait for logs of the next scenario
+            final CountDownLatch attachments = attachmentUploader.mark();
+            final CountDownLatch logs = logPipeline.mark();
+            itemDispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    attachmentUploader.await(attachments);
+                    logPipeline.await(logs);
+                    String itemId;
+                    try {
+                        itemId = scenario.getId();
+                    } catch (IllegalStateException ex) {
+                        LOGGER.debug("Scenario item has not been started, it is not finished", ex);
+                        return;
+                    }
+                    attempts.send(itemId);
+                    try {
+                        ReportPortalClient.get().finishTestItem(itemId, status, issueComments, endTime);
+                    } catch (RestEndpointIOException ex) {
+                        LOGGER.debug("Unable to finish test item", ex);
+                    }
+                }
+            });
+        }
+        // messages logged after the finish must not be buffered for the next scenario
+        currentScenario = null;
+    }
+
+    /**
+     * Report the result of a step or hook through {@link #sendLog}, so it is buffered and spooled
+     * like the other messages of the scenario
+     *
+     * @param result - result of the step or hook
+     * @param message - message to log, can be null
+     */
+    @Override
+    protected void reportResult(Result result, String message) {
+        if (!Statuses.PASSED.equalsIgnoreCase(result.getStatus())) {
+            // lines of the steps before the failure go first, the failure itself is sent on its own
+            flushStepLog();
+        }
+        String level = Utils.mapLevel(result.getStatus());
+        if (result.getErrorMessage() != null) {
+            sendLog(result.getErrorMessage(), level);
+        }
+        if (message != null) {
+            sendLog(message, level);
+        }
+        if (currentScenario != null) {
+            currentScenario.updateStatus(Utils.mapStatus(result.getStatus()));
+        }
     }
 
     //****************************************************************************
@@ -337,90 +554,284 @@ public abstract class ExtendedAbstractReporter extends AbstractReporter {
     //****************************************************************************
 
     @Override
-    public void feature(Feature feature) {
-        int forkNumber = 1;
+    public void uri(String uri) {
+        enterThread();
         try {
-            forkNumber = Integer.parseInt(System.getProperty(FORK_NUMBER_PROPERTY_NAME).trim());
-        } catch (NumberFormatException ex) {
-            LOGGER.debug("Incorrect fork number value", ex);
+            super.uri(uri);
+        } finally {
+            exitThread();
         }
+    }
 
-        if (forkNumber != 1 && !waitForLaunchProperties()){
-            throw new RuntimeException("Launch properties file hasn't been created within a minute");
+    @Override
+    public void scenarioOutline(ScenarioOutline scenarioOutline) {
+        enterThread();
+        try {
+            super.scenarioOutline(scenarioOutline);
+        } finally {
+            exitThread();
         }
+    }
 
-        readLaunchProperties();
-        currentLaunchId = launchProperties.getProperty(LAUNCH_ID_PROPERTY_NAME);
+    @Override
+    public void background(Background background) {
+        enterThread();
+        try {
+            super.background(background);
+        } finally {
+            exitThread();
+        }
+    }
 
-        if (currentLaunchId == null) {
-            beforeLaunch();
-            launchProperties.setProperty(LAUNCH_ID_PROPERTY_NAME, currentLaunchId);
-            startRootItem();
-            createTestClassesMarkers();
-            createLaunchPropFile();
-        } else {
-            setRootItemId(launchProperties.getProperty(ROOT_SUITE_ID_PROPERTY_NAME));
+    @Override
+    public void scenario(Scenario scenario) {
+        enterThread();
+        try {
+            super.scenario(scenario);
+        } finally {
+            exitThread();
         }
+    }
 
-        beforeFeature(feature);
+    @Override
+    public void step(Step step) {
+        enterThread();
+        try {
+            super.step(step);
+        } finally {
+            exitThread();
+        }
     }
 
     @Override
-    public void examples(Examples examples) {
-        int num = examples.getRows().size();
-        // examples always have headers; therefore up to num - 1
-        Queue<String> outlineIterations = new ArrayDeque<>();
-        for (int i = 1; i < num; i++) {
-            outlineIterations.add(formatExampleString(examples.getRows().get(i).getCells()));
+    public void endOfScenarioLifeCycle(Scenario scenario) {
+        enterThread();
+        try {
+            super.endOfScenarioLifeCycle(scenario);
+        } finally {
+            exitThread();
         }
+    }
+
+    @Override
+    public void before(Match match, Result result) {
+        enterThread();
         try {
-            FieldUtils.writeField(this, "outlineIterations", outlineIterations, true);
-        } catch (IllegalAccessException e) {
-            LOGGER.debug("Could not write outlineIterations", e);
+            super.before(match, result);
+        } finally {
+            exitThread();
         }
     }
 
     @Override
-    public void startOfScenarioLifeCycle(Scenario scenario) {
-        if (currentGherkinScenario != null && currentGherkinScenario.getId().equals(scenario.getId())){
-            retryNumber++;
-            Utils.sendLog(getLogDestination(), "", "INFO", null);
-            Utils.sendLog(getLogDestination(),  "------------------------- RETRY " + retryNumber + " -------------------------", "INFO", null);
-            Utils.sendLog(getLogDestination(), "", "INFO", null);
-            beforeHooks(true);
-            return;
+    public void result(Result result) {
+        enterThread();
+        try {
+            super.result(result);
+        } finally {
+            exitThread();
+        }
+    }
+
+    @Override
+    public void after(Match match, Result result) {
+        enterThread();
+        try {
+            super.after(match, result);
+        } finally {
+            exitThread();
+        }
+    }
+
+    @Override
+    public void match(Match match) {
+        enterThread();
+        try {
+            super.match(match);
+        } finally {
+            exitThread();
+        }
+    }
+
+    @Override
+    public void embedding(String mimeType, byte[] data) {
+        enterThread();
+        try {
+            if (attachmentUploader.isEnabled() || itemDispatcher.isAsync() || threadStates != null) {
+                attachmentUploader.embed(getLogDestinationItem(), mimeType, data);
+            } else {
+                super.embedding(mimeType, data);
+            }
+        } finally {
+            exitThread();
         }
+    }
+
+    @Override
+    public void feature(Feature feature) {
+        enterThread();
+        try {
+            if (currentLaunchId == null) {
+                joinLaunch();
+            }
 
-        currentGherkinScenario = scenario;
-        super.startOfScenarioLifeCycle(scenario);
+            beforeFeature(feature);
+        } finally {
+            exitThread();
+        }
+    }
+
+    /**
+     * Join the launch of the run once per runner, starting it if no runner has done it yet
+     */
+    private void joinLaunch() {
+        LaunchContext context = LaunchContext.get();
+        forkNumber = context.getForkNumber();
+        Coordinator.Launch launch = context.joinLaunch(new Callable<Coordinator.Launch>() {
+            @Override
+            public Coordinator.Launch call() {
+                long start = ReporterMetrics.start();
+                beforeLaunch();
+                ReporterMetrics.record("launch.start", start);
+                launchProperties.setProperty(LAUNCH_ID_PROPERTY_NAME, currentLaunchId);
+                if (Spool.isEnabled()) {
+                    Spool.open(currentLaunchId);
+                }
+                start = ReporterMetrics.start();
+                startRootItem();
+                ReporterMetrics.record("item.start", start);
+                String rootSuiteId = launchProperties.getProperty(ROOT_SUITE_ID_PROPERTY_NAME);
+                if (FeaturePreregistrar.isEnabled()) {
+                    return new Coordinator.Launch(currentLaunchId, rootSuiteId, preregisterFeatures(currentLaunchId, rootSuiteId));
+                }
+                return new Coordinator.Launch(currentLaunchId, rootSuiteId);
+            }
+        });
+        currentLaunchId = launch.getLaunchId();
+        if (Spool.isEnabled()) {
+            Spool.open(currentLaunchId);
+        }
+        launchProperties.setProperty(LAUNCH_ID_PROPERTY_NAME, launch.getLaunchId());
+        launchProperties.setProperty(ROOT_SUITE_ID_PROPERTY_NAME, launch.getRootSuiteId());
+        setRootItemId(launch.getRootSuiteId());
+    }
+
+    @Override
+    public void examples(Examples examples) {
+        enterThread();
+        try {
+            // names are formatted as the examples start
+            try {
+                if (OUTLINE_ITERATIONS_FIELD == null) {
+                    LOGGER.debug("Could not find outlineIterations");
+                } else {
+                    OUTLINE_ITERATIONS_FIELD.set(this, new OutlineIterations(examples.getRows()));
+                }
+            } catch (IllegalAccessException e) {
+                LOGGER.debug("Could not write outlineIterations", e);
+            }
+        } finally {
+            exitThread();
+        }
+    }
+
+    @Override
+    public void startOfScenarioLifeCycle(Scenario scenario) {
+        enterThread();
+        try {
+            if (currentGherkinScenario != null && currentGherkinScenario.getId().equals(scenario.getId())){
+                retryNumber++;
+                ReporterMetrics.increment("scenario.retries");
+                sendLog("", "INFO");
+                sendLog("------------------------- RETRY " + retryNumber + " -------------------------", "INFO");
+                sendLog("", "INFO");
+                beforeHooks(true);
+                return;
+            }
+
+            currentGherkinScenario = scenario;
+            super.startOfScenarioLifeCycle(scenario);
+        } finally {
+            exitThread();
+        }
     }
 
     @Override
     public void close() {
-        if (currentLaunchId != null) {
-            Collection<java.io.File> inProgressFiles = FileUtils.listFiles(new java.io.File("./target"), new String[]{"inprogress"}, false);
-            if (!inProgressFiles.isEmpty()){
-                Iterator<java.io.File> iterator = inProgressFiles.iterator();
-                int i = 0;
-                boolean deleted;
-                do {
-                    java.io.File file = iterator.next();
-                    deleted = FileUtils.deleteQuietly(file);
-                    i++;
-                } while (!deleted && i<5);
+        long closeStart = ReporterMetrics.start();
+        itemDispatcher.close();
+        itemUpdates.close();
+        attachmentUploader.close();
+        logPipeline.close();
+        if (durationIndex != null) {
+            durationIndex.save();
+        }
+        if (isExpired()) {
+            LOGGER.warn("Runner lease has expired, the launch is finished by other forks");
+        } else if (currentLaunchId != null) {
+            if (Spool.isEnabled()) {
+                Spool.get().flush();
+            }
+            List<String> featureItemIds = LaunchContext.get().leave();
+            if (featureItemIds != null) {
+                finishLaunch(featureItemIds);
+            } else {
+                LaunchContext.get().takeOver(new Coordinator.LaunchFinisher() {
+                    @Override
+                    public void finish(List<String> featureItemIds) {
+                        finishLaunch(featureItemIds);
+                    }
+                });
             }
+        }
+        ReporterMetrics.record("close", closeStart);
+        ReporterMetrics.writeSummary(forkNumber);
+    }
 
-            inProgressFiles = FileUtils.listFiles(new java.io.File("./target"), new String[]{"inprogress"}, false);
-            if (inProgressFiles.isEmpty()) {
-                closeAllFeatures();
-                finishRootItem();
-                afterLaunch();
+    /**
+     * Finish the features, the root suite and the launch
+     *
+     * @param featureItemIds - item ids of all features of the launch
+     */
+    private void finishLaunch(List<String> featureItemIds) {
+        List<String> skippedItemIds = new ArrayList<>();
+        if (FeaturePreregistrar.isEnabled()) {
+            skippedItemIds.addAll(FeaturePreregistrar.findNotStarted(currentLaunchId, featureItemIds));
+        }
+        if (Spool.isEnabled()) {
+            Map<String, String> itemIds = replaySpool(featureItemIds, skippedItemIds);
+            if (itemIds == null) {
+                return;
             }
+            featureItemIds = SpoolReplayer.resolve(featureItemIds, itemIds);
+            skippedItemIds = SpoolReplayer.resolve(skippedItemIds, itemIds);
+        }
+        new LaunchFinalizer().finish(featureItemIds, skippedItemIds);
+        long start = ReporterMetrics.start();
+        finishRootItem();
+        ReporterMetrics.record("item.finish", start);
+        start = ReporterMetrics.start();
+        afterLaunch();
+        ReporterMetrics.record("launch.finish", start);
+    }
+
+    @Override
+    public void write(String text) {
+        enterThread();
+        try {
+            sendLog(text, "INFO");
+        } finally {
+            exitThread();
         }
     }
 
     @Override
     public void eof() {
-        afterFeature();
+        enterThread();
+        try {
+            afterFeature();
+        } finally {
+            exitThread();
+        }
     }
 }
\ No newline at end of file
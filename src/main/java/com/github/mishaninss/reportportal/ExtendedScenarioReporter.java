@@ -1,7 +1,6 @@
 package com.github.mishaninss.reportportal;
 
 import com.epam.reportportal.cucumber.Utils;
-import com.epam.reportportal.listeners.ReportPortalListenerContext;
 import com.epam.reportportal.listeners.Statuses;
 import com.epam.ta.reportportal.ws.model.StartTestItemRQ;
 import gherkin.formatter.model.Match;
@@ -28,22 +27,23 @@ public class ExtendedScenarioReporter extends ExtendedAbstractReporter {
     @Override
     protected void beforeScenario(Scenario scenario, String outlineIteration) {
         super.beforeScenario(scenario, outlineIteration);
-        ReportPortalListenerContext.setRunningNowItemId(currentScenario.getId());
+        RunningItemContext.setRunningNowItem(((ExtendedScenarioModel) currentScenario).getItem());
     }
 
     @Override
     protected void afterScenario() {
         super.afterScenario();
-        if (!Statuses.FAILED.equalsIgnoreCase(currentScenario.getStatus()) || retryNumber >= maxRetryCount) {
-            ReportPortalListenerContext.setRunningNowItemId(null);
+        if (currentScenario == null) {
+            RunningItemContext.setRunningNowItem(null);
         }
     }
 
     @Override
     protected void beforeStep(Step step) {
+        RunningItemContext.refresh();
         String decoratedStepName = decorateMessage(Utils.buildStatementName(step, stepPrefix, " ", null));
         String multilineArg = Utils.buildMultilineArgument(step);
-        Utils.sendLog(getLogDestination(), decoratedStepName + multilineArg, "INFO", null);
+        sendStepLog(decoratedStepName + multilineArg);
     }
 
     @Override
@@ -59,10 +59,11 @@ public class ExtendedScenarioReporter extends ExtendedAbstractReporter {
 
     @Override
     protected void beforeHooks(Boolean isBefore) {
+        RunningItemContext.refresh();
         String message = "------------------------- ";
         message += isBefore ? "BEFORE" : "AFTER";
         message += " HOOKS STARTED -------------------------";
-        Utils.sendLog(getLogDestination(), message, "INFO", null);
+        sendStepLog(message);
     }
 
     @Override
@@ -70,7 +71,7 @@ public class ExtendedScenarioReporter extends ExtendedAbstractReporter {
         String message = "------------------------- ";
         message += isBefore ? "BEFORE" : "AFTER";
         message += " HOOKS FINISHED -------------------------";
-        Utils.sendLog(getLogDestination(), message, "INFO", null);
+        sendStepLog(message);
     }
 
     @Override
@@ -78,9 +79,17 @@ public class ExtendedScenarioReporter extends ExtendedAbstractReporter {
         reportResult(result, null);
     }
 
+    /**
+     * @return id of the current scenario, null while it is being started, see {@link #getLogDestinationItem()}
+     */
     @Override
     protected String getLogDestination() {
-        return currentScenario == null ? null : currentScenario.getId();
+        return currentScenario == null ? null : ((ExtendedScenarioModel) currentScenario).getItem().peek();
+    }
+
+    @Override
+    protected ItemHandle getLogDestinationItem() {
+        return currentScenario == null ? null : ((ExtendedScenarioModel) currentScenario).getItem();
     }
 
     @Override
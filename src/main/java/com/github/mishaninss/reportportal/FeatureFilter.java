@@ -0,0 +1,198 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Feature filters of the {@code cucumber.options} property, as Cucumber applies them to the features of a run:
+ * feature paths and rerun files ({@code @file}), line filters of the paths ({@code path:12:30}),
+ * {@code --name} patterns and {@code --tags} expressions. A path with lines takes its lines instead of
+ * the names and tags, names are taken instead of tags. The filters returned are those of gherkin's
+ * {@code FilterFormatter}.
+ * <p>
+ * Features and tags of runner annotations are not visible outside of the runners and are not applied.
+ */
+final class FeatureFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FeatureFilter.class);
+
+    static final String CUCUMBER_OPTIONS_PROPERTY_NAME = "cucumber.options";
+
+    private static final Pattern ARGUMENT = Pattern.compile("\"([^\"]*)\"|'([^']*)'|(\\S+)");
+    private static final Pattern LINES = Pattern.compile("^(.*?)((?::\\d+)+)$");
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final List<String> OPTIONS_WITH_VALUE = new ArrayList<>();
+
+    static {
+        Collections.addAll(OPTIONS_WITH_VALUE, "--glue", "-g", "--plugin", "-p", "--format", "-f",
+                "--snippets", "--i18n", "--junit", "--threads");
+    }
+
+    private final List<Path> paths = new ArrayList<>();
+    private final List<String> tags = new ArrayList<>();
+    private final List<Pattern> names = new ArrayList<>();
+
+    private FeatureFilter() {
+    }
+
+    /**
+     * @return filters of the {@code cucumber.options} property
+     */
+    static FeatureFilter fromCucumberOptions() {
+        return parse(SystemProperties.getString(CUCUMBER_OPTIONS_PROPERTY_NAME, ""));
+    }
+
+    static FeatureFilter parse(String options) {
+        FeatureFilter filter = new FeatureFilter();
+        List<String> arguments = split(options);
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            if ("--tags".equals(argument) || "-t".equals(argument)) {
+                if (++i < arguments.size()) {
+                    filter.tags.add(arguments.get(i));
+                }
+            } else if ("--name".equals(argument) || "-n".equals(argument)) {
+                if (++i < arguments.size()) {
+                    filter.names.add(Pattern.compile(arguments.get(i)));
+                }
+            } else if (OPTIONS_WITH_VALUE.contains(argument)) {
+                i++;
+            } else if (argument.startsWith("@")) {
+                filter.addRerunFile(new java.io.File(argument.substring(1)));
+            } else if (!argument.startsWith("-")) {
+                filter.paths.add(Path.parse(argument));
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * @param file - feature file
+     * @param uri - uri of the feature file relative to its features directory
+     * @return filters the feature should be parsed with, empty for all of its scenarios, null if the feature
+     * is not in any of the paths
+     */
+    List<Object> getFilters(java.io.File file, String uri) {
+        List<Object> filters = new ArrayList<>();
+        if (!paths.isEmpty()) {
+            boolean included = false;
+            for (Path path : paths) {
+                if (path.contains(file, uri)) {
+                    included = true;
+                    filters.addAll(path.lines);
+                }
+            }
+            if (!included) {
+                return null;
+            }
+            if (!filters.isEmpty()) {
+                return filters;
+            }
+        }
+        if (!names.isEmpty()) {
+            filters.addAll(names);
+        } else {
+            filters.addAll(tags);
+        }
+        return filters;
+    }
+
+    private void addRerunFile(java.io.File file) {
+        try {
+            for (String entry : split(FileUtils.readFileToString(file, StandardCharsets.UTF_8.name()))) {
+                paths.add(Path.parse(entry));
+            }
+        } catch (IOException ex) {
+            LOGGER.debug("Could not read rerun file " + file, ex);
+        }
+    }
+
+    private static List<String> split(String options) {
+        List<String> arguments = new ArrayList<>();
+        Matcher matcher = ARGUMENT.matcher(options);
+        while (matcher.find()) {
+            for (int group = 1; group <= 3; group++) {
+                if (matcher.group(group) != null) {
+                    arguments.add(matcher.group(group));
+                    break;
+                }
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Feature path of the options, a directory or a file, with the lines to run
+     */
+    private static final class Path {
+        private final String path;
+        private final java.io.File file;
+        private final List<Long> lines = new ArrayList<>();
+
+        /**
+         * @param path - path relative to a features directory, as of a classpath path
+         * @param file - path in the file system, null for a classpath path
+         */
+        private Path(String path, java.io.File file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        private static Path parse(String argument) {
+            String value = argument;
+            List<Long> lines = new ArrayList<>();
+            Matcher matcher = LINES.matcher(value);
+            if (matcher.matches()) {
+                value = matcher.group(1);
+                for (String line : matcher.group(2).substring(1).split(":")) {
+                    lines.add(Long.parseLong(line));
+                }
+            }
+            java.io.File file = null;
+            if (value.startsWith(CLASSPATH_PREFIX)) {
+                value = value.substring(CLASSPATH_PREFIX.length());
+            } else {
+                file = new java.io.File(value);
+            }
+            value = value.replace('\\', '/');
+            while (value.startsWith("/") || value.startsWith("./")) {
+                value = value.substring(value.startsWith("/") ? 1 : 2);
+            }
+            while (value.endsWith("/")) {
+                value = value.substring(0, value.length() - 1);
+            }
+            Path path = new Path(value, file);
+            path.lines.addAll(lines);
+            return path;
+        }
+
+        private boolean contains(java.io.File file, String uri) {
+            if (isPrefix(path, uri)) {
+                return true;
+            }
+            if (this.file == null) {
+                return false;
+            }
+            try {
+                String filePath = file.getCanonicalPath().replace('\\', '/');
+                String dirPath = this.file.getCanonicalPath().replace('\\', '/');
+                return isPrefix(dirPath, filePath);
+            } catch (IOException ex) {
+                LOGGER.debug("Could not resolve feature path " + this.file, ex);
+                return false;
+            }
+        }
+
+        private static boolean isPrefix(String path, String uri) {
+            return path.isEmpty() || uri.equals(path) || uri.startsWith(path + "/");
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.github.mishaninss.reportportal;
+
+import com.google.common.hash.Hashing;
+import gherkin.formatter.FilterFormatter;
+import gherkin.formatter.Formatter;
+import gherkin.formatter.model.Background;
+import gherkin.formatter.model.Examples;
+import gherkin.formatter.model.Feature;
+import gherkin.formatter.model.Scenario;
+import gherkin.formatter.model.ScenarioOutline;
+import gherkin.formatter.model.Step;
+import gherkin.parser.Parser;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the items of all features of the run together with the launch, so runners find every feature
+ * item published and never wait for each other in {@code beforeFeature}.
+ * <p>
+ * Enabled with {@code rp.features.preregister=true}. Feature files are looked up in the comma separated
+ * {@code rp.features.path} directories ({@code src/test/resources} by default), their uri is the path
+ * relative to that directory. The items are started by {@code rp.features.preregister.threads} threads.
+ * A feature that could not be started is created by its runner as usual. Features are filtered by the
+ * paths, names and tags of {@code cucumber.options}, see {@link FeatureFilter}. Runners record the feature
+ * items they start in ./target/rp_features, and pre-registered features that no runner has started, e.g.
+ * filtered out by a runner annotation, are finished as skipped.
+ */
+final class FeaturePreregistrar {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FeaturePreregistrar.class);
+
+    static final String PREREGISTER_PROPERTY_NAME = "rp.features.preregister";
+    static final String PATH_PROPERTY_NAME = "rp.features.path";
+    static final String THREADS_PROPERTY_NAME = "rp.features.preregister.threads";
+
+    private static final String DEFAULT_PATH = "src/test/resources";
+    private static final int DEFAULT_THREADS = 8;
+    private static final java.io.File STARTED_DIR = new java.io.File("./target/rp_features");
+    private static final Set<String> STARTED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Starts the item of a feature
+     */
+    interface Starter {
+        /**
+         * @param uri - uri of the feature file
+         * @param feature - the feature
+         * @return id of the started item
+         */
+        String start(String uri, Feature feature) throws Exception;
+    }
+
+    private FeaturePreregistrar() {
+    }
+
+    static boolean isEnabled() {
+        return SystemProperties.getBoolean(PREREGISTER_PROPERTY_NAME, false);
+    }
+
+    /**
+     * Start the items of all features found
+     *
+     * @param starter - starts a feature item
+     * @return item ids by Cucumber feature id
+     */
+    static Map<String, String> register(final Starter starter) {
+        Map<String, String> uris = new LinkedHashMap<>();
+        Map<String, Feature> features = new LinkedHashMap<>();
+        FeatureFilter filter = FeatureFilter.fromCucumberOptions();
+        for (Map.Entry<String, java.io.File> featureFile : findFeatureFiles().entrySet()) {
+            String uri = featureFile.getKey();
+            List<Object> filters = filter.getFilters(featureFile.getValue(), uri);
+            if (filters == null) {
+                continue;
+            }
+            Feature feature = parse(featureFile.getValue(), uri, filters);
+            if (feature != null && !features.containsKey(feature.getId())) {
+                features.put(feature.getId(), feature);
+                uris.put(feature.getId(), uri);
+            }
+        }
+        Map<String, String> itemIds = new LinkedHashMap<>();
+        if (features.isEmpty()) {
+            return itemIds;
+        }
+
+        int threads = Math.max(1, Math.min(features.size(), SystemProperties.getInt(THREADS_PROPERTY_NAME, DEFAULT_THREADS)));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rp-feature-preregistration");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<String>> results = new ArrayList<>();
+        for (final Feature feature : features.values()) {
+            final String uri = uris.get(feature.getId());
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return starter.start(uri, feature);
+                }
+            }));
+        }
+        int i = 0;
+        for (String featureId : features.keySet()) {
+            try {
+                String itemId = results.get(i++).get();
+                if (itemId != null) {
+                    itemIds.put(featureId, itemId);
+                }
+            } catch (ExecutionException ex) {
+                LOGGER.debug("Could not pre-register feature " + featureId, ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                LOGGER.debug("Interrupted while pre-registering features", ex);
+                break;
+            }
+        }
+        executor.shutdownNow();
+        return itemIds;
+    }
+
+    /**
+     * @return the {@code rp.features.path} directories
+     */
+    static List<java.io.File> getFeatureDirs() {
+        List<java.io.File> dirs = new ArrayList<>();
+        for (String path : SystemProperties.getString(PATH_PROPERTY_NAME, DEFAULT_PATH).split(",")) {
+            dirs.add(new java.io.File(path.trim()));
+        }
+        return dirs;
+    }
+
+    /**
+     * @return feature files of the {@code rp.features.path} directories by uri
+     */
+    static Map<String, java.io.File> findFeatureFiles() {
+        Map<String, java.io.File> files = new LinkedHashMap<>();
+        for (java.io.File dir : getFeatureDirs()) {
+            if (!dir.isDirectory()) {
+                LOGGER.debug("Feature directory {} doesn't exist", dir);
+                continue;
+            }
+            for (java.io.File file : FileUtils.listFiles(dir, new String[]{"feature"}, true)) {
+                String uri = dir.toURI().relativize(file.toURI()).getPath();
+                if (!files.containsKey(uri)) {
+                    files.put(uri, file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Record that a runner has started a feature item, called by every runner for every feature it runs
+     *
+     * @param launchId - id of the launch
+     * @param itemId - id of the feature item
+     */
+    static void markStarted(String launchId, String itemId) {
+        if (!STARTED.add(launchId + ' ' + itemId)) {
+            return;
+        }
+        java.io.File marker = getMarker(launchId, itemId);
+        try {
+            marker.getParentFile().mkdirs();
+            marker.createNewFile();
+        } catch (IOException ex) {
+            LOGGER.debug("Could not mark feature item " + itemId + " as started", ex);
+        }
+    }
+
+    /**
+     * Find the feature items no runner has started and forget the started ones
+     *
+     * @param launchId - id of the launch
+     * @param itemIds - ids of the feature items
+     * @return ids of the items no runner has marked as started
+     */
+    static Set<String> findNotStarted(String launchId, Collection<String> itemIds) {
+        Set<String> notStarted = new LinkedHashSet<>();
+        for (String itemId : itemIds) {
+            if (!getMarker(launchId, itemId).exists()) {
+                notStarted.add(itemId);
+            }
+        }
+        FileUtils.deleteQuietly(new java.io.File(STARTED_DIR, launchId));
+        return notStarted;
+    }
+
+    private static java.io.File getMarker(String launchId, String itemId) {
+        return new java.io.File(new java.io.File(STARTED_DIR, launchId), Hashing.sha1().hashString(itemId, StandardCharsets.UTF_8).toString());
+    }
+
+    private static Feature parse(java.io.File file, String uri, List<Object> filters) {
+        FeatureCollector collector = new FeatureCollector();
+        try {
+            new Parser(filters.isEmpty() ? collector : new FilterFormatter(collector, filters)).parse(FileUtils.readFileToString(file, StandardCharsets.UTF_8.name()), uri, 0);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.debug("Could not parse feature file " + file, ex);
+        }
+        return collector.feature;
+    }
+
+    /**
+     * Keeps the feature reported by the gherkin parser
+     */
+    private static final class FeatureCollector implements Formatter {
+        private Feature feature;
+
+        @Override
+        public void feature(Feature feature) {
+            this.feature = feature;
+        }
+
+        @Override
+        public void syntaxError(String state, String event, List<String> legalEvents, String uri, Integer line) {
+            feature = null;
+        }
+
+        @Override
+        public void uri(String uri) {
+        }
+
+        @Override
+        public void scenarioOutline(ScenarioOutline scenarioOutline) {
+        }
+
+        @Override
+        public void examples(Examples examples) {
+        }
+
+        @Override
+        public void startOfScenarioLifeCycle(Scenario scenario) {
+        }
+
+        @Override
+        public void background(Background background) {
+        }
+
+        @Override
+        public void scenario(Scenario scenario) {
+        }
+
+        @Override
+        public void step(Step step) {
+        }
+
+        @Override
+        public void endOfScenarioLifeCycle(Scenario scenario) {
+        }
+
+        @Override
+        public void done() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void eof() {
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the launch state in ./target. The ids live in a {@link LaunchRegistry} created by the first
+ * fork under an {@link InterProcessLock}, the other forks wait for the registry file to appear and
+ * create the launch themselves if fork 1 hasn't done it within the wait timeout.
+ * The registry also counts down the runners counted with {@link Coordinators#countRunners()}, the
+ * runner that brings the count to zero finishes the launch.
+ * <p>
+ * Runners in progress hold a {@link RunnerLease}. A leaving runner also counts down the runners of
+ * expired leases. A fork whose runners are done but weren't the last ones waits on exit until the leases
+ * of the others are released or expire, for up to a lease timeout and a heartbeat, so the launch is finished
+ * even if a fork dies right before the others leave. One fork waits at a time, the others exit right away.
+ * A longer {@code rp.coordinator.linger} lets the waiting fork outlive the other forks' runs as well.
+ */
+final class FileCoordinator implements Coordinator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileCoordinator.class);
+
+    private static final java.io.File LAUNCH_REGISTRY_FILE = new java.io.File("./target/rp_launch.registry");
+    private static final java.io.File LAUNCH_LOCK_FILE = new java.io.File("./target/rp_launch.lock");
+    private static final java.io.File LEASE_DIR = new java.io.File("./target/rp_leases");
+    private static final java.io.File WATCHER_LOCK_FILE = new java.io.File("./target/rp_leases/watcher.lock");
+
+    private final int forkNumber;
+    private final RunnerLease lease = new RunnerLease(LEASE_DIR);
+    private LaunchRegistry launchRegistry;
+    private LaunchFinisher finisher;
+
+    FileCoordinator(int forkNumber) {
+        this.forkNumber = forkNumber;
+    }
+
+    @Override
+    public synchronized Launch joinLaunch(Callable<Launch> starter) {
+        if (launchRegistry == null) {
+            if (forkNumber != 1 && !FileWaiter.waitForCreation(LAUNCH_REGISTRY_FILE)) {
+                LOGGER.debug("Launch registry file hasn't been created within {} ms, starting the launch", FileWaiter.getTimeout());
+            }
+            if (LAUNCH_REGISTRY_FILE.exists()) {
+                launchRegistry = LaunchRegistry.open(LAUNCH_REGISTRY_FILE);
+            } else {
+                try (InterProcessLock ignored = InterProcessLock.acquire(LAUNCH_LOCK_FILE)) {
+                    if (LAUNCH_REGISTRY_FILE.exists()) {
+                        launchRegistry = LaunchRegistry.open(LAUNCH_REGISTRY_FILE);
+                    } else {
+                        Launch launch = Coordinators.call(starter);
+                        launchRegistry = LaunchRegistry.create(LAUNCH_REGISTRY_FILE, launch.getLaunchId(), launch.getRootSuiteId(),
+                                Coordinators.countRunners(), launch.getFeatureItemIds());
+                    }
+                }
+            }
+        }
+        lease.acquire();
+        return new Launch(launchRegistry.getLaunchId(), launchRegistry.getRootSuiteId());
+    }
+
+    @Override
+    public String getOrCreateFeatureItemId(String featureId, Callable<String> creator) {
+        return launchRegistry.getOrCreateFeatureItemId(featureId, creator);
+    }
+
+    @Override
+    public synchronized List<String> leave() {
+        try (InterProcessLock ignored = RunnerLease.lock(LEASE_DIR)) {
+            int runners = (lease.release() ? 1 : 0) + RunnerLease.reapExpired(LEASE_DIR);
+            return launchRegistry.leave(runners) ? launchRegistry.getFeatureItemIds() : null;
+        }
+    }
+
+    @Override
+    public boolean isExpired() {
+        return lease.isExpired();
+    }
+
+    @Override
+    public synchronized void takeOver(LaunchFinisher finisher) {
+        if (lease.isExpired()) {
+            return;
+        }
+        boolean watching = this.finisher != null;
+        this.finisher = finisher;
+        if (watching) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (InterProcessLock watcher = InterProcessLock.tryAcquire(WATCHER_LOCK_FILE)) {
+                    // one watching fork is enough, the others exit right away
+                    if (watcher != null) {
+                        awaitRunners();
+                    }
+                }
+            }
+        }, "rp-lease-watcher"));
+    }
+
+    /**
+     * Wait until the runners of other forks have left, finishing the launch if their leases expire
+     */
+    void awaitRunners() {
+        long deadline = System.currentTimeMillis()
+                + Math.max(Coordinators.getLinger(), RunnerLease.getTimeout() + RunnerLease.getHeartbeat());
+        long interval = RunnerLease.getHeartbeat();
+        while (true) {
+            List<String> featureItemIds;
+            LaunchFinisher launchFinisher;
+            synchronized (this) {
+                launchFinisher = finisher;
+                try (InterProcessLock ignored = RunnerLease.lock(LEASE_DIR)) {
+                    if (launchRegistry.getRunners() == 0 || !RunnerLease.isHeld(LEASE_DIR)) {
+                        return;
+                    }
+                    featureItemIds = launchRegistry.leave(RunnerLease.reapExpired(LEASE_DIR))
+                            ? launchRegistry.getFeatureItemIds() : null;
+                }
+            }
+            if (featureItemIds != null) {
+                LOGGER.warn("Finishing the launch left by dead forks");
+                launchFinisher.finish(featureItemIds);
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                LOGGER.debug("Not all runners have finished, stop waiting for them");
+                return;
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ex) {
+                LOGGER.debug("Interrupted while waiting for runners", ex);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Waits for files shared between forks to appear.
+ * The parent directory is watched with a {@link WatchService}, so a waiting fork wakes up as soon as
+ * the file system reports a change. Some file systems never deliver events, therefore the file is also
+ * re-checked every {@value #DEFAULT_POLL_INTERVAL} ms (configurable with {@code rp.wait.poll.interval}).
+ */
+final class FileWaiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileWaiter.class);
+
+    static final String WAIT_TIMEOUT_PROPERTY_NAME = "rp.wait.timeout";
+    static final String POLL_INTERVAL_PROPERTY_NAME = "rp.wait.poll.interval";
+    static final long DEFAULT_WAIT_TIMEOUT = 60000;
+    static final long DEFAULT_POLL_INTERVAL = 500;
+
+    private FileWaiter() {
+    }
+
+    /**
+     * @return maximum time in milliseconds to wait for another fork, {@code rp.wait.timeout}
+     */
+    static long getTimeout() {
+        return SystemProperties.getLong(WAIT_TIMEOUT_PROPERTY_NAME, DEFAULT_WAIT_TIMEOUT);
+    }
+
+    /**
+     * Wait until the file is created
+     *
+     * @param file - file to wait for
+     * @return true if the file exists, false if it hasn't been created within the timeout
+     */
+    static boolean waitForCreation(java.io.File file) {
+        if (file.exists()) {
+            return true;
+        }
+        long start = ReporterMetrics.start();
+        try {
+            return watch(file);
+        } finally {
+            ReporterMetrics.record("coordination.wait", start);
+        }
+    }
+
+    private static boolean watch(java.io.File file) {
+        long deadline = System.currentTimeMillis() + getTimeout();
+        long pollInterval = Math.max(1, SystemProperties.getLong(POLL_INTERVAL_PROPERTY_NAME, DEFAULT_POLL_INTERVAL));
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        try (WatchService watcher = dir.getFileSystem().newWatchService()) {
+            dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            boolean watching = true;
+            // the file is checked again after registration, so a file created in between is not missed
+            while (!file.exists()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                long timeout = Math.min(remaining, pollInterval);
+                if (watching) {
+                    WatchKey key = watcher.poll(timeout, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        watching = key.reset();
+                    }
+                } else {
+                    Thread.sleep(timeout);
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            LOGGER.debug("Could not watch " + dir + ", falling back to polling", ex);
+            return poll(file, deadline, pollInterval);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return file.exists();
+        }
+    }
+
+    private static boolean poll(java.io.File file, long deadline, long pollInterval) {
+        try {
+            while (!file.exists()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                Thread.sleep(Math.min(remaining, pollInterval));
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return file.exists();
+        }
+    }
+}
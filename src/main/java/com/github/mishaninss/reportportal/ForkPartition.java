@@ -0,0 +1,118 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Spreads features across forks by their durations in the {@link DurationIndex}, longest first: every
+ * feature goes to the fork with the least work so far. Features the index doesn't know are assumed to
+ * take the average duration of the known ones. Uris are matched to the index as in
+ * {@link DurationIndex#normalize(String)}.
+ * <p>
+ * Can be run as {@code java com.github.mishaninss.reportportal.ForkPartition <forks> [output directory]}
+ * before the tests, e.g. in the {@code process-test-classes} phase. It takes the features of
+ * {@code rp.features.path} and writes {@code fork_N.txt} files to the output directory
+ * ({@code ./target/rp_partition} by default) in Cucumber rerun format, so fork N runs its share with
+ * {@code -Dcucumber.options=@target/rp_partition/fork_N.txt}.
+ */
+public final class ForkPartition {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForkPartition.class);
+
+    private static final java.io.File DEFAULT_OUTPUT_DIR = new java.io.File("./target/rp_partition");
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private ForkPartition() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int forks = Integer.parseInt(args[0]);
+        java.io.File dir = args.length > 1 ? new java.io.File(args[1]) : DEFAULT_OUTPUT_DIR;
+        Collection<String> uris = FeaturePreregistrar.findFeatureFiles().keySet();
+        List<List<String>> partition = partition(uris, forks);
+        for (int fork = 1; fork <= partition.size(); fork++) {
+            StringBuilder rerun = new StringBuilder();
+            for (String uri : partition.get(fork - 1)) {
+                rerun.append(CLASSPATH_PREFIX).append(uri).append('\n');
+            }
+            FileUtils.write(new java.io.File(dir, "fork_" + fork + ".txt"), rerun, StandardCharsets.UTF_8.name());
+        }
+        System.out.println("Partitioned " + uris.size() + " features across " + forks + " forks in " + dir);
+    }
+
+    /**
+     * @param uris - feature uris
+     * @param forks - number of forks
+     * @return feature uris of every fork, the first list is for fork 1
+     */
+    public static List<List<String>> partition(Collection<String> uris, int forks) {
+        return partition(uris, forks, DurationIndex.load());
+    }
+
+    static List<List<String>> partition(Collection<String> uris, int forks, DurationIndex index) {
+        List<Feature> features = new ArrayList<>();
+        long known = 0;
+        int knownCount = 0;
+        for (String uri : uris) {
+            long duration = index.getFeatureDuration(uri);
+            features.add(new Feature(uri, duration));
+            if (duration >= 0) {
+                known += duration;
+                knownCount++;
+            }
+        }
+        if (knownCount == 0 && !index.isEmpty()) {
+            LOGGER.warn("None of the " + features.size() + " features has a duration in " + index.getFile()
+                    + ", check that rp.features.path points to the features directories of the run");
+        }
+        long average = knownCount == 0 ? 1 : Math.max(1, known / knownCount);
+        for (Feature feature : features) {
+            if (feature.duration < 0) {
+                feature.duration = average;
+            }
+        }
+        Collections.sort(features, new Comparator<Feature>() {
+            @Override
+            public int compare(Feature first, Feature second) {
+                int order = Long.compare(second.duration, first.duration);
+                return order != 0 ? order : first.uri.compareTo(second.uri);
+            }
+        });
+
+        int count = Math.max(1, forks);
+        List<List<String>> partition = new ArrayList<>(count);
+        long[] loads = new long[count];
+        for (int fork = 0; fork < count; fork++) {
+            partition.add(new ArrayList<String>());
+        }
+        for (Feature feature : features) {
+            int lightest = 0;
+            for (int fork = 1; fork < count; fork++) {
+                if (loads[fork] < loads[lightest]) {
+                    lightest = fork;
+                }
+            }
+            partition.get(lightest).add(feature.uri);
+            loads[lightest] += feature.duration;
+        }
+        return partition;
+    }
+
+    private static final class Feature {
+        private final String uri;
+        private long duration;
+
+        private Feature(String uri, long duration) {
+            this.uri = uri;
+            this.duration = duration;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock shared by all forks, backed by an OS level lock of a file.
+ * File locks are held on behalf of the whole JVM, so threads of the same JVM are serialized
+ * with an additional in-process lock. The lock file itself is never deleted: removing it
+ * while another fork is blocked on it would let two forks hold "the same" lock.
+ * The OS releases the lock if the owning fork dies.
+ */
+final class InterProcessLock implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InterProcessLock.class);
+    private static final ConcurrentMap<String, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock localLock;
+    private final RandomAccessFile file;
+    private final FileLock fileLock;
+
+    private InterProcessLock(ReentrantLock localLock, RandomAccessFile file, FileLock fileLock) {
+        this.localLock = localLock;
+        this.file = file;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Block until the lock is acquired
+     *
+     * @param lockFile - file to lock, created if it doesn't exist
+     * @return acquired lock, to be released with {@link #close()}
+     */
+    static InterProcessLock acquire(java.io.File lockFile) {
+        long start = ReporterMetrics.start();
+        ReentrantLock localLock = localLock(lockFile);
+        localLock.lock();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(lockFile, "rw");
+            return new InterProcessLock(localLock, file, file.getChannel().lock());
+        } catch (IOException | RuntimeException ex) {
+            closeQuietly(file);
+            localLock.unlock();
+            throw new RuntimeException("Could not lock " + lockFile, ex);
+        } finally {
+            ReporterMetrics.record("coordination.lock", start);
+        }
+    }
+
+    /**
+     * Acquire the lock if no other thread or fork holds it
+     *
+     * @param lockFile - file to lock, created if it doesn't exist
+     * @return acquired lock, to be released with {@link #close()}, or null if the lock is held
+     */
+    static InterProcessLock tryAcquire(java.io.File lockFile) {
+        ReentrantLock localLock = localLock(lockFile);
+        if (!localLock.tryLock()) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(lockFile, "rw");
+            FileLock fileLock = file.getChannel().tryLock();
+            if (fileLock == null) {
+                closeQuietly(file);
+                localLock.unlock();
+                return null;
+            }
+            return new InterProcessLock(localLock, file, fileLock);
+        } catch (IOException | RuntimeException ex) {
+            closeQuietly(file);
+            localLock.unlock();
+            throw new RuntimeException("Could not lock " + lockFile, ex);
+        }
+    }
+
+    private static ReentrantLock localLock(java.io.File lockFile) {
+        String key = lockFile.getAbsoluteFile().toPath().normalize().toString();
+        ReentrantLock lock = LOCAL_LOCKS.get(key);
+        if (lock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = LOCAL_LOCKS.putIfAbsent(key, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close lock file", ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            fileLock.release();
+        } catch (IOException ex) {
+            LOGGER.debug("Could not release file lock", ex);
+        } finally {
+            closeQuietly(file);
+            localLock.unlock();
+        }
+    }
+}
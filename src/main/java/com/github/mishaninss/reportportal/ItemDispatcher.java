@@ -0,0 +1,140 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the calls that start, update and finish test items.
+ * <p>
+ * By default every call is made on the calling thread, or collected with {@link DeferredCalls} while the
+ * thread handles an event in parallel mode. With {@code rp.item.async=true} the calls are
+ * queued to a single background thread, so they reach Report Portal in the order they were made, and
+ * starting an item returns a pending {@link ItemHandle} right away. Children, logs and the finish of
+ * the item wait for its id in the background instead of on the test thread.
+ * <p>
+ * The id of an asynchronously started scenario is not known when the scenario begins, so log appenders
+ * get its handle from {@link RunningItemContext}.
+ */
+final class ItemDispatcher implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ItemDispatcher.class);
+
+    static final String ASYNC_PROPERTY_NAME = "rp.item.async";
+
+    private final ExecutorService executor;
+    private final DeferredCalls deferred;
+
+    private ItemDispatcher(ExecutorService executor, DeferredCalls deferred) {
+        this.executor = executor;
+        this.deferred = deferred;
+    }
+
+    /**
+     * @return dispatcher configured with system properties
+     */
+    static ItemDispatcher create() {
+        return create(new DeferredCalls());
+    }
+
+    /**
+     * @param deferred - calls made on the calling thread
+     * @return dispatcher configured with system properties
+     */
+    static ItemDispatcher create(DeferredCalls deferred) {
+        if (!SystemProperties.getBoolean(ASYNC_PROPERTY_NAME, false)) {
+            return new ItemDispatcher(null, deferred);
+        }
+        return new ItemDispatcher(Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rp-item-dispatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }), deferred);
+    }
+
+    boolean isAsync() {
+        return executor != null;
+    }
+
+    /**
+     * Start a test item
+     *
+     * @param starter - starts the item and returns its id
+     * @return handle of the item, resolved already unless the dispatcher is asynchronous or the call is deferred
+     */
+    ItemHandle start(final Callable<String> starter) {
+        if (executor == null && !deferred.isActive()) {
+            return ItemHandle.of(call(starter));
+        }
+        final ItemHandle handle = ItemHandle.pending();
+        (executor == null ? deferred : executor).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handle.complete(call(starter));
+                } catch (RuntimeException ex) {
+                    LOGGER.debug("Could not start test item", ex);
+                    handle.fail(ex);
+                }
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Run a call that updates or finishes test items after everything submitted before it
+     *
+     * @param action - the call
+     */
+    void execute(final Runnable action) {
+        if (executor == null) {
+            deferred.execute(action);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    action.run();
+                } catch (RuntimeException ex) {
+                    LOGGER.debug("Could not update test item", ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Finish all submitted calls and stop the background thread
+     */
+    @Override
+    public void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while waiting for test item calls", ex);
+        }
+    }
+
+    private static String call(Callable<String> starter) {
+        try {
+            return starter.call();
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException("Could not start test item", ex);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.mishaninss.reportportal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report Portal test item whose id may not be known yet.
+ * Items started asynchronously get their id once Report Portal has answered,
+ * everything that needs the real id waits for it with {@link #get()}, at most {@code rp.item.timeout} ms.
+ */
+public final class ItemHandle {
+    static final String TIMEOUT_PROPERTY_NAME = "rp.item.timeout";
+    static final long DEFAULT_TIMEOUT = 120000;
+
+    private final CountDownLatch resolved = new CountDownLatch(1);
+    private volatile String id;
+    private volatile RuntimeException failure;
+
+    private ItemHandle() {
+    }
+
+    /**
+     * @param id - id of an already started item, can be null
+     * @return resolved handle
+     */
+    static ItemHandle of(String id) {
+        ItemHandle handle = new ItemHandle();
+        handle.complete(id);
+        return handle;
+    }
+
+    /**
+     * @param ex - reason the item could not be started
+     * @return failed handle
+     */
+    static ItemHandle failed(RuntimeException ex) {
+        ItemHandle handle = new ItemHandle();
+        handle.fail(ex);
+        return handle;
+    }
+
+    /**
+     * @return handle to be resolved later with {@link #complete(String)} or {@link #fail(RuntimeException)}
+     */
+    static ItemHandle pending() {
+        return new ItemHandle();
+    }
+
+    synchronized void complete(String itemId) {
+        if (!isDone()) {
+            id = itemId;
+            resolved.countDown();
+        }
+    }
+
+    synchronized void fail(RuntimeException ex) {
+        if (!isDone()) {
+            failure = ex;
+            resolved.countDown();
+        }
+    }
+
+    /**
+     * @return time in milliseconds to wait for an item to be started, {@code rp.item.timeout}
+     */
+    static long getTimeout() {
+        return SystemProperties.getLong(TIMEOUT_PROPERTY_NAME, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @return true if the item id is known or the item could not be started
+     */
+    public boolean isDone() {
+        return resolved.getCount() == 0;
+    }
+
+    /**
+     * @return id of the item if it has been started already, null otherwise
+     */
+    public String peek() {
+        return isDone() && failure == null ? id : null;
+    }
+
+    /**
+     * Wait for the item to be started. If it hasn't been started within {@code rp.item.timeout} ms
+     * the handle fails, so nothing waits for the item any more.
+     *
+     * @return Report Portal id of the item
+     */
+    public String get() {
+        try {
+            long timeout = getTimeout();
+            if (!resolved.await(timeout, TimeUnit.MILLISECONDS)) {
+                fail(new IllegalStateException("Test item has not been started within " + timeout + " ms"));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for test item id", ex);
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Test item could not be started", failure);
+        }
+        return id;
+    }
+}
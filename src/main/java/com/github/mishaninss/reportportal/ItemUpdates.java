@@ -0,0 +1,127 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description and tag updates of test items.
+ * <p>
+ * By default updates are collected while the tests run and sent on {@link #close()} by
+ * {@code rp.item.update.threads} background threads, so finishing a scenario doesn't wait for them.
+ * A later update of the same item replaces the earlier one. With {@code rp.item.update.deferred=false}
+ * every update is sent right away through the {@link ItemDispatcher}.
+ */
+final class ItemUpdates implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ItemUpdates.class);
+
+    static final String DEFERRED_PROPERTY_NAME = "rp.item.update.deferred";
+    static final String THREADS_PROPERTY_NAME = "rp.item.update.threads";
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private final ItemDispatcher dispatcher;
+    private final boolean deferred;
+    private final Map<ItemHandle, Update> pending = new LinkedHashMap<>();
+
+    ItemUpdates(ItemDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        deferred = SystemProperties.getBoolean(DEFERRED_PROPERTY_NAME, true);
+    }
+
+    /**
+     * Set description and tags of a test item
+     *
+     * @param item - the item
+     * @param description - new description
+     * @param tags - new tags
+     */
+    void update(ItemHandle item, String description, Set<String> tags) {
+        final Update update = new Update(item, description, tags);
+        if (!deferred) {
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    update.send();
+                }
+            });
+            return;
+        }
+        synchronized (pending) {
+            pending.put(item, update);
+        }
+    }
+
+    /**
+     * Send all collected updates and wait for them. Test items must have been started by now.
+     */
+    @Override
+    public void close() {
+        List<Update> updates;
+        synchronized (pending) {
+            updates = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        int threads = Math.max(1, Math.min(updates.size(), SystemProperties.getInt(THREADS_PROPERTY_NAME, DEFAULT_THREADS)));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rp-item-updates");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final Update update : updates) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    update.send();
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while waiting for test item updates", ex);
+        }
+    }
+
+    private static final class Update {
+        private final ItemHandle item;
+        private final String description;
+        private final Set<String> tags;
+
+        private Update(ItemHandle item, String description, Set<String> tags) {
+            this.item = item;
+            this.description = description;
+            this.tags = tags;
+        }
+
+        private void send() {
+            try {
+                if (Spool.isEnabled()) {
+                    Spool.get().updateTestItem(item.get(), description, tags);
+                    return;
+                }
+                ReportPortalClient.get().updateTestItem(item.get(), description, tags);
+            } catch (Exception ex) {
+                LOGGER.debug("Unable to update test item", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.mishaninss.reportportal;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Launch state shared by all reporters and threads of the JVM: the fork number, the {@link Coordinator},
+ * the launch and root suite ids, and the item ids of the features seen so far. It is resolved lazily by
+ * the first reporter. After that, starting a feature that any runner of the JVM has already seen needs
+ * no coordination with other forks. It also remembers the attachments uploaded to the launch, see
+ * {@link AttachmentUploader}. Feature ids and attachments are dropped when the JVM joins a different launch.
+ */
+final class LaunchContext {
+    private static final String FORK_NUMBER_PROPERTY_NAME = "fork.number";
+
+    private static volatile LaunchContext instance;
+
+    private final int forkNumber;
+    private final Coordinator coordinator;
+    private final ConcurrentMap<String, String> featureItemIds = new ConcurrentHashMap<>();
+    private final Map<String, String> attachments = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > AttachmentUploader.getCacheSize();
+        }
+    };
+    private Coordinator.Launch launch;
+
+    private LaunchContext(int forkNumber, Coordinator coordinator) {
+        this.forkNumber = forkNumber;
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * @return context of the JVM
+     */
+    static LaunchContext get() {
+        LaunchContext context = instance;
+        if (context == null) {
+            synchronized (LaunchContext.class) {
+                context = instance;
+                if (context == null) {
+                    int forkNumber = SystemProperties.getInt(FORK_NUMBER_PROPERTY_NAME, 1);
+                    context = new LaunchContext(forkNumber, Coordinators.get(forkNumber));
+                    instance = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * @return number of the fork the JVM runs as, {@code fork.number}, 1 by default
+     */
+    int getForkNumber() {
+        return forkNumber;
+    }
+
+    /**
+     * Join the launch of the run, called once by every runner
+     *
+     * @param starter - starts the launch if no fork has done it yet, see {@link Coordinator#joinLaunch}
+     * @return ids of the launch
+     */
+    Coordinator.Launch joinLaunch(Callable<Coordinator.Launch> starter) {
+        Coordinator.Launch joined = coordinator.joinLaunch(starter);
+        synchronized (this) {
+            if (launch != null && !launch.getLaunchId().equals(joined.getLaunchId())) {
+                featureItemIds.clear();
+                synchronized (attachments) {
+                    attachments.clear();
+                }
+            }
+            launch = joined;
+        }
+        return joined;
+    }
+
+    /**
+     * Get the item id of a feature from the cache or the coordinator, see {@link Coordinator#getOrCreateFeatureItemId}
+     *
+     * @param featureId - Cucumber id of the feature
+     * @param creator - starts the feature item and returns its id
+     * @return item id of the feature
+     */
+    String getOrCreateFeatureItemId(String featureId, Callable<String> creator) {
+        String itemId = featureItemIds.get(featureId);
+        if (itemId != null) {
+            return itemId;
+        }
+        itemId = coordinator.getOrCreateFeatureItemId(featureId, creator);
+        if (itemId != null) {
+            featureItemIds.putIfAbsent(featureId, itemId);
+        }
+        return itemId;
+    }
+
+    /**
+     * Reserve the content of an attachment for upload
+     *
+     * @param hash - hash of the content
+     * @param name - name of the attachment
+     * @return name of the attachment the content has been reserved for before, null if it is reserved now
+     */
+    String reserveAttachment(String hash, String name) {
+        synchronized (attachments) {
+            String reserved = attachments.get(hash);
+            if (reserved == null) {
+                attachments.put(hash, name);
+            }
+            return reserved;
+        }
+    }
+
+    /**
+     * Release the content of an attachment that could not be uploaded
+     *
+     * @param hash - hash of the content
+     * @param name - name of the attachment it has been reserved for
+     */
+    void releaseAttachment(String hash, String name) {
+        synchronized (attachments) {
+            if (name.equals(attachments.get(hash))) {
+                attachments.remove(hash);
+            }
+        }
+    }
+
+    /**
+     * @see Coordinator#isExpired()
+     */
+    boolean isExpired() {
+        return coordinator.isExpired();
+    }
+
+    /**
+     * @see Coordinator#leave()
+     */
+    List<String> leave() {
+        return coordinator.leave();
+    }
+
+    /**
+     * @see Coordinator#takeOver(Coordinator.LaunchFinisher)
+     */
+    void takeOver(Coordinator.LaunchFinisher finisher) {
+        coordinator.takeOver(finisher);
+    }
+}
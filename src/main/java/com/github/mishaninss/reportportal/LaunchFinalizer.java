@@ -0,0 +1,160 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.reportportal.exception.ReportPortalException;
+import com.epam.ta.reportportal.ws.model.ErrorType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Finishes test items left open at the end of the launch.
+ * <p>
+ * Up to {@code rp.finish.threads} items are finished at once. A request that fails or takes longer than
+ * {@code rp.finish.timeout} ms is repeated up to {@code rp.finish.retries} times. A request that timed out may
+ * still have reached Report Portal, so an item reported as finished already counts as finished. {@link #finish}
+ * returns only when every item is either finished or given up, so callers can finish parents afterwards.
+ */
+final class LaunchFinalizer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LaunchFinalizer.class);
+
+    static final String THREADS_PROPERTY_NAME = "rp.finish.threads";
+    static final String TIMEOUT_PROPERTY_NAME = "rp.finish.timeout";
+    static final String RETRIES_PROPERTY_NAME = "rp.finish.retries";
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final long DEFAULT_TIMEOUT = 30000;
+    private static final int DEFAULT_RETRIES = 2;
+    private static final String SKIPPED = "SKIPPED";
+
+    private final int threads;
+    private final long timeout;
+    private final int retries;
+
+    LaunchFinalizer() {
+        threads = Math.max(1, SystemProperties.getInt(THREADS_PROPERTY_NAME, DEFAULT_THREADS));
+        timeout = Math.max(1, SystemProperties.getLong(TIMEOUT_PROPERTY_NAME, DEFAULT_TIMEOUT));
+        retries = Math.max(0, SystemProperties.getInt(RETRIES_PROPERTY_NAME, DEFAULT_RETRIES));
+    }
+
+    /**
+     * Finish test items, letting Report Portal calculate their status
+     *
+     * @param itemIds - ids of the items
+     * @return ids of the items that could not be finished
+     */
+    List<String> finish(Collection<String> itemIds) {
+        return finish(itemIds, Collections.<String>emptySet());
+    }
+
+    /**
+     * Finish test items, letting Report Portal calculate their status except for the skipped ones
+     *
+     * @param itemIds - ids of the items
+     * @param skippedItemIds - ids of the items to finish as skipped
+     * @return ids of the items that could not be finished
+     */
+    List<String> finish(Collection<String> itemIds, final Collection<String> skippedItemIds) {
+        List<String> failed = new ArrayList<>();
+        if (itemIds.isEmpty()) {
+            return failed;
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, itemIds.size()), threadFactory("rp-finish"));
+        // requests run on separate threads so that a hanging one can be abandoned after the timeout
+        final ExecutorService requests = Executors.newCachedThreadPool(threadFactory("rp-finish-request"));
+        List<Future<Boolean>> results = new ArrayList<>();
+        final Calendar endTime = Calendar.getInstance();
+        for (final String itemId : itemIds) {
+            results.add(workers.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return finishItem(requests, itemId, skippedItemIds.contains(itemId) ? SKIPPED : null, endTime);
+                }
+            }));
+        }
+        int i = 0;
+        for (String itemId : itemIds) {
+            try {
+                if (!results.get(i++).get()) {
+                    failed.add(itemId);
+                }
+            } catch (ExecutionException ex) {
+                LOGGER.debug("Could not finish test item " + itemId, ex);
+                failed.add(itemId);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                LOGGER.debug("Interrupted while finishing test items", ex);
+                failed.add(itemId);
+            }
+        }
+        workers.shutdownNow();
+        requests.shutdownNow();
+        if (!failed.isEmpty()) {
+            ReporterMetrics.add("finish.failed", failed.size());
+            LOGGER.warn("Could not finish " + failed.size() + " of " + itemIds.size() + " test items: " + failed);
+        }
+        return failed;
+    }
+
+    private boolean finishItem(ExecutorService requests, final String itemId, final String status, final Calendar endTime) {
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                ReporterMetrics.increment("finish.retries");
+            }
+            Future<?> request = requests.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    ReportPortalClient.get().finishTestItem(itemId, status, null, endTime.getTime());
+                    return null;
+                }
+            });
+            try {
+                request.get(timeout, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException ex) {
+                request.cancel(true);
+                LOGGER.debug("Finishing test item " + itemId + " timed out, attempt " + (attempt + 1), ex);
+            } catch (ExecutionException ex) {
+                if (isFinishedAlready(ex.getCause())) {
+                    LOGGER.debug("Test item " + itemId + " has been finished already");
+                    return true;
+                }
+                LOGGER.debug("Could not finish test item " + itemId + ", attempt " + (attempt + 1), ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                request.cancel(true);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isFinishedAlready(Throwable error) {
+        return error instanceof ReportPortalException
+                && ((ReportPortalException) error).getErrorContent() != null
+                && ((ReportPortalException) error).getErrorContent().getErrorType() == ErrorType.REPORTING_ITEM_ALREADY_FINISHED;
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,459 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Launch state shared by all forks through a single memory mapped file.
+ * <p>
+ * The file starts with a fixed header holding the launch id, the root suite id and the number of runners
+ * that haven't finished yet, followed by an open addressed hash table of feature id to Report Portal item id. Keys are MD5 digests of the
+ * feature id, collisions are resolved with linear probing.
+ * <pre>
+ * header: magic(4) capacity(4) launchId(64) rootSuiteId(64) runners(4) reserved
+ * slot:   state(1) key(16) length(1) itemId(62)
+ * </pre>
+ * The header region is locked while the table is read or changed. A fork creating a feature keeps
+ * the byte range of its slot locked until the item id is written, so other forks interested in the
+ * same feature block on that range only. A slot left CLAIMED by a fork that died or failed to create
+ * the item is taken over by the next fork that gets its lock.
+ * <p>
+ * POSIX releases all locks of a process on a file when any descriptor of that file is closed,
+ * so there is a single instance per file in a JVM.
+ */
+final class LaunchRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LaunchRegistry.class);
+    private static final Map<String, LaunchRegistry> INSTANCES = new HashMap<>();
+
+    static final String CAPACITY_PROPERTY_NAME = "rp.registry.capacity";
+    static final int DEFAULT_CAPACITY = 16384;
+
+    private static final int MAGIC = 0x52504C52;
+    private static final int ID_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int LAUNCH_ID_OFFSET = 8;
+    private static final int ROOT_SUITE_ID_OFFSET = LAUNCH_ID_OFFSET + ID_SIZE;
+    private static final int RUNNERS_OFFSET = ROOT_SUITE_ID_OFFSET + ID_SIZE;
+    private static final int HEADER_SIZE = 256;
+
+    private static final int KEY_SIZE = 16;
+    private static final int VALUE_SIZE = 62;
+    private static final int SLOT_SIZE = 1 + KEY_SIZE + 1 + VALUE_SIZE;
+
+    private static final byte EMPTY = 0;
+    private static final byte CLAIMED = 1;
+    private static final byte READY = 2;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final ReentrantLock headerLock = new ReentrantLock();
+    private final ConcurrentMap<Integer, ReentrantLock> slotLocks = new ConcurrentHashMap<>();
+
+    private LaunchRegistry(java.io.File registryFile) throws IOException {
+        file = new RandomAccessFile(registryFile, "rw");
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (buffer.getInt(0) != MAGIC) {
+            file.close();
+            throw new IOException(registryFile + " is not a launch registry");
+        }
+        capacity = buffer.getInt(CAPACITY_OFFSET);
+    }
+
+    /**
+     * Create the registry file with published launch data. The file is prepared under a temporary
+     * name and moved in place, so forks waiting for it never see an incomplete registry, nor a
+     * registry without the pre-registered features.
+     *
+     * @param registryFile - registry file
+     * @param launchId - id of the launch
+     * @param rootSuiteId - id of the root test suite
+     * @param runners - number of runners that will {@link #leave(int)} the launch
+     * @param featureItemIds - item ids of features created together with the launch
+     * @return opened registry
+     */
+    static LaunchRegistry create(java.io.File registryFile, String launchId, String rootSuiteId, int runners,
+                                 Map<String, String> featureItemIds) {
+        int capacity = Math.max(1, SystemProperties.getInt(CAPACITY_PROPERTY_NAME, DEFAULT_CAPACITY));
+        java.io.File tmpFile = new java.io.File(registryFile.getPath() + ".tmp");
+        try {
+            try (RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw")) {
+                long size = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+                tmp.setLength(size);
+                MappedByteBuffer header = tmp.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.putInt(CAPACITY_OFFSET, capacity);
+                putString(header, LAUNCH_ID_OFFSET, ID_SIZE, launchId);
+                putString(header, ROOT_SUITE_ID_OFFSET, ID_SIZE, rootSuiteId);
+                header.putInt(RUNNERS_OFFSET, runners);
+                header.putInt(0, MAGIC);
+                header.force();
+            }
+            if (!featureItemIds.isEmpty()) {
+                LaunchRegistry registry = new LaunchRegistry(tmpFile);
+                try {
+                    for (Map.Entry<String, String> feature : featureItemIds.entrySet()) {
+                        registry.put(feature.getKey(), feature.getValue());
+                    }
+                    registry.buffer.force();
+                } finally {
+                    registry.file.close();
+                }
+            }
+            try {
+                Files.move(tmpFile.toPath(), registryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile.toPath(), registryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not create launch registry", ex);
+        }
+        synchronized (INSTANCES) {
+            // an instance of a registry file deleted since is stale
+            INSTANCES.remove(registryFile.getAbsoluteFile().toPath().normalize().toString());
+        }
+        return open(registryFile);
+    }
+
+    /**
+     * @param registryFile - registry file created by {@link #create(java.io.File, String, String, int, Map)}
+     * @return registry instance shared by the whole JVM
+     */
+    static LaunchRegistry open(java.io.File registryFile) {
+        String key = registryFile.getAbsoluteFile().toPath().normalize().toString();
+        synchronized (INSTANCES) {
+            LaunchRegistry registry = INSTANCES.get(key);
+            if (registry == null) {
+                try {
+                    registry = new LaunchRegistry(registryFile);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Could not open launch registry", ex);
+                }
+                INSTANCES.put(key, registry);
+            }
+            return registry;
+        }
+    }
+
+    String getLaunchId() {
+        return getString(buffer, LAUNCH_ID_OFFSET, ID_SIZE);
+    }
+
+    String getRootSuiteId() {
+        return getString(buffer, ROOT_SUITE_ID_OFFSET, ID_SIZE);
+    }
+
+    /**
+     * @param featureId - Cucumber feature id
+     * @return Report Portal item id of the feature or null if it hasn't been created yet
+     */
+    String getFeatureItemId(String featureId) {
+        byte[] key = digest(featureId);
+        try (HeaderLock ignored = lockHeader(true)) {
+            int slot = findSlot(key);
+            return slot >= 0 && state(slot) == READY ? value(slot) : null;
+        }
+    }
+
+    /**
+     * Get Report Portal item id of the feature, creating the item if no fork has done it yet.
+     * Exactly one fork calls the creator for each feature, the others wait for its result.
+     *
+     * @param featureId - Cucumber feature id
+     * @param creator - starts the feature item and returns its id
+     * @return Report Portal item id of the feature
+     */
+    String getOrCreateFeatureItemId(String featureId, Callable<String> creator) {
+        byte[] key = digest(featureId);
+        int slot;
+        HeaderLock header = lockHeader(false);
+        try {
+            slot = findSlot(key);
+            if (slot >= 0 && state(slot) == READY) {
+                return value(slot);
+            }
+            if (slot < 0) {
+                slot = claimSlot(key);
+                // the slot is locked before the header is released, so nobody sees it claimed but unlocked
+                SlotLock slotLock = lockSlot(slot);
+                header.close();
+                return create(slotLock, creator);
+            }
+        } finally {
+            header.close();
+        }
+
+        // another fork is creating the feature, wait for it on the slot lock
+        SlotLock slotLock = lockSlot(slot);
+        if (state(slot) == READY) {
+            slotLock.close();
+            return value(slot);
+        }
+        LOGGER.debug("Feature {} has been left unfinished by another fork, creating it", featureId);
+        return create(slotLock, creator);
+    }
+
+    /**
+     * Count down the runners of the launch
+     *
+     * @param runners - number of runners leaving, including the ones of dead forks
+     * @return true if these were the last runners, the caller finishes the launch
+     */
+    boolean leave(int runners) {
+        try (HeaderLock ignored = lockHeader(false)) {
+            int remaining = Math.max(0, buffer.getInt(RUNNERS_OFFSET) - runners);
+            buffer.putInt(RUNNERS_OFFSET, remaining);
+            return remaining == 0 && runners > 0;
+        }
+    }
+
+    /**
+     * @return number of runners that haven't left the launch yet
+     */
+    int getRunners() {
+        try (HeaderLock ignored = lockHeader(true)) {
+            return buffer.getInt(RUNNERS_OFFSET);
+        }
+    }
+
+    /**
+     * @return Report Portal item ids of all created features
+     */
+    List<String> getFeatureItemIds() {
+        List<String> ids = new ArrayList<>();
+        try (HeaderLock ignored = lockHeader(true)) {
+            for (int slot = 0; slot < capacity; slot++) {
+                if (state(slot) == READY) {
+                    ids.add(value(slot));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Store the item id of a feature in a registry no other fork can see yet
+     */
+    private void put(String featureId, String itemId) {
+        byte[] key = digest(featureId);
+        if (findSlot(key) < 0) {
+            int position = position(claimSlot(key));
+            putString(buffer, position + 1 + KEY_SIZE, VALUE_SIZE + 1, itemId);
+            buffer.put(position, READY);
+        }
+    }
+
+    /**
+     * Call the creator for a claimed slot. The slot becomes READY only with an item id; if the creator
+     * fails or returns null the slot stays CLAIMED and unlocked, so the next runner retries the creation.
+     * The slot is not emptied, that would cut the probe sequence of the keys stored after it.
+     */
+    private String create(SlotLock slotLock, Callable<String> creator) {
+        try {
+            String itemId = creator.call();
+            if (itemId == null) {
+                return null;
+            }
+            int position = position(slotLock.slot);
+            putString(buffer, position + 1 + KEY_SIZE, VALUE_SIZE + 1, itemId);
+            buffer.put(position, READY);
+            return itemId;
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException("Could not create feature", ex);
+        } finally {
+            slotLock.close();
+        }
+    }
+
+    private int findSlot(byte[] key) {
+        int start = index(key);
+        for (int i = 0; i < capacity; i++) {
+            int slot = (start + i) % capacity;
+            byte state = state(slot);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (Arrays.equals(key(slot), key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int claimSlot(byte[] key) {
+        int start = index(key);
+        for (int i = 0; i < capacity; i++) {
+            int slot = (start + i) % capacity;
+            if (state(slot) == EMPTY) {
+                int position = position(slot);
+                for (int j = 0; j < KEY_SIZE; j++) {
+                    buffer.put(position + 1 + j, key[j]);
+                }
+                buffer.put(position, CLAIMED);
+                return slot;
+            }
+        }
+        throw new RuntimeException("Launch registry is full, increase " + CAPACITY_PROPERTY_NAME);
+    }
+
+    private int index(byte[] key) {
+        int hash = (key[0] & 0xFF) << 24 | (key[1] & 0xFF) << 16 | (key[2] & 0xFF) << 8 | (key[3] & 0xFF);
+        return (hash & Integer.MAX_VALUE) % capacity;
+    }
+
+    private static int position(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private byte state(int slot) {
+        return buffer.get(position(slot));
+    }
+
+    private byte[] key(int slot) {
+        byte[] key = new byte[KEY_SIZE];
+        int position = position(slot) + 1;
+        for (int i = 0; i < KEY_SIZE; i++) {
+            key[i] = buffer.get(position + i);
+        }
+        return key;
+    }
+
+    private String value(int slot) {
+        return getString(buffer, position(slot) + 1 + KEY_SIZE, VALUE_SIZE + 1);
+    }
+
+    private static byte[] digest(String featureId) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(featureId.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Strings are stored as a length byte followed by UTF-8 bytes, padded to the field size
+     */
+    private static void putString(MappedByteBuffer buffer, int offset, int size, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > size - 1) {
+            throw new IllegalArgumentException("Value doesn't fit into launch registry: " + value);
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 1 + i, bytes[i]);
+        }
+        buffer.put(offset, (byte) bytes.length);
+    }
+
+    private static String getString(MappedByteBuffer buffer, int offset, int size) {
+        int length = buffer.get(offset) & 0xFF;
+        if (length == 0 || length > size - 1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private HeaderLock lockHeader(boolean shared) {
+        long start = ReporterMetrics.start();
+        headerLock.lock();
+        try {
+            return new HeaderLock(channel.lock(0, HEADER_SIZE, shared));
+        } catch (IOException | RuntimeException ex) {
+            headerLock.unlock();
+            throw new RuntimeException("Could not lock launch registry", ex);
+        } finally {
+            ReporterMetrics.record("coordination.lock", start);
+        }
+    }
+
+    private SlotLock lockSlot(int slot) {
+        ReentrantLock lock = slotLocks.get(slot);
+        if (lock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = slotLocks.putIfAbsent(slot, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        long start = ReporterMetrics.start();
+        lock.lock();
+        try {
+            return new SlotLock(slot, lock, channel.lock(position(slot), SLOT_SIZE, false));
+        } catch (IOException | RuntimeException ex) {
+            lock.unlock();
+            throw new RuntimeException("Could not lock launch registry", ex);
+        } finally {
+            ReporterMetrics.record("coordination.lock", start);
+        }
+    }
+
+    private static void release(FileLock fileLock) {
+        try {
+            fileLock.release();
+        } catch (IOException ex) {
+            LOGGER.debug("Could not release launch registry lock", ex);
+        }
+    }
+
+    private final class HeaderLock implements AutoCloseable {
+        private FileLock fileLock;
+
+        private HeaderLock(FileLock fileLock) {
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() {
+            if (fileLock != null) {
+                release(fileLock);
+                fileLock = null;
+                headerLock.unlock();
+            }
+        }
+    }
+
+    private static final class SlotLock implements AutoCloseable {
+        private final int slot;
+        private final ReentrantLock lock;
+        private final FileLock fileLock;
+
+        private SlotLock(int slot, ReentrantLock lock, FileLock fileLock) {
+            this.slot = slot;
+            this.lock = lock;
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() {
+            release(fileLock);
+            lock.unlock();
+        }
+    }
+}
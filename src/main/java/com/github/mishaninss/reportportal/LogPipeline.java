@@ -0,0 +1,529 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.reportportal.cucumber.Utils;
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends log messages of test items to Report Portal.
+ * <p>
+ * By default every message is sent right away with {@link Utils#sendLog}. With {@code rp.log.async=true}
+ * messages are put into a bounded queue and a background thread sends them in batches, one multipart
+ * request per batch. A batch is sent when it reaches {@code rp.log.batch.size} entries or
+ * {@code rp.log.batch.bytes} bytes of text, or when its first entry is {@code rp.log.batch.interval} ms old.
+ * The time of a message is taken when it is logged, not when it is sent. In {@link Spool} mode messages
+ * go to the journal instead. Messages of an item that hasn't been started yet are held back, in their order,
+ * while the messages of other items are sent, so the queue keeps draining while the item is started.
+ * <p>
+ * {@code rp.log.queue.policy} defines what happens when {@code rp.log.queue.capacity} messages are waiting:
+ * <ul>
+ * <li>BLOCK - the test thread waits for free space (default)</li>
+ * <li>DROP_DEBUG - DEBUG and TRACE messages are dropped, the others wait</li>
+ * <li>SPILL - messages are written to a file in ./target and sent once the queue has been drained</li>
+ * </ul>
+ */
+final class LogPipeline implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogPipeline.class);
+
+    static final String ASYNC_PROPERTY_NAME = "rp.log.async";
+    static final String BATCH_SIZE_PROPERTY_NAME = "rp.log.batch.size";
+    static final String BATCH_BYTES_PROPERTY_NAME = "rp.log.batch.bytes";
+    static final String BATCH_INTERVAL_PROPERTY_NAME = "rp.log.batch.interval";
+    static final String QUEUE_CAPACITY_PROPERTY_NAME = "rp.log.queue.capacity";
+    static final String QUEUE_POLICY_PROPERTY_NAME = "rp.log.queue.policy";
+
+    static final int DEFAULT_BATCH_SIZE = 20;
+    private static final long DEFAULT_BATCH_BYTES = 512 * 1024;
+    private static final long DEFAULT_BATCH_INTERVAL = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    private static final java.io.File SPILL_DIR = new java.io.File("./target");
+    private static final long WAITING_RECHECK_INTERVAL = 50;
+
+    enum OverflowPolicy {
+        BLOCK, DROP_DEBUG, SPILL
+    }
+
+    private final boolean async;
+    private final int batchSize;
+    private final long batchBytes;
+    private final long batchInterval;
+    private final OverflowPolicy policy;
+    private final BlockingQueue<Entry> queue;
+    private final SpillFile spillFile = new SpillFile();
+    private final DeferredCalls deferred;
+    private Thread worker;
+    private volatile boolean closed;
+
+    private LogPipeline(boolean async, DeferredCalls deferred) {
+        this.async = async;
+        this.deferred = deferred;
+        batchSize = Math.max(1, SystemProperties.getInt(BATCH_SIZE_PROPERTY_NAME, DEFAULT_BATCH_SIZE));
+        batchBytes = Math.max(1, SystemProperties.getLong(BATCH_BYTES_PROPERTY_NAME, DEFAULT_BATCH_BYTES));
+        batchInterval = Math.max(1, SystemProperties.getLong(BATCH_INTERVAL_PROPERTY_NAME, DEFAULT_BATCH_INTERVAL));
+        policy = OverflowPolicy.valueOf(SystemProperties.getString(QUEUE_POLICY_PROPERTY_NAME, OverflowPolicy.BLOCK.name()).toUpperCase());
+        queue = async ? new ArrayBlockingQueue<Entry>(Math.max(1, SystemProperties.getInt(QUEUE_CAPACITY_PROPERTY_NAME, DEFAULT_QUEUE_CAPACITY))) : null;
+    }
+
+    /**
+     * @return pipeline configured with system properties
+     */
+    static LogPipeline create() {
+        return create(new DeferredCalls());
+    }
+
+    /**
+     * @param deferred - calls made on the calling thread
+     * @return pipeline configured with system properties
+     */
+    static LogPipeline create(DeferredCalls deferred) {
+        final LogPipeline pipeline = new LogPipeline(SystemProperties.getBoolean(ASYNC_PROPERTY_NAME, false), deferred);
+        if (pipeline.async) {
+            pipeline.worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pipeline.sendLoop();
+                }
+            }, "rp-log-pipeline");
+            pipeline.worker.setDaemon(true);
+            pipeline.worker.start();
+        }
+        return pipeline;
+    }
+
+    /**
+     * Send a log message
+     *
+     * @param item - test item the message belongs to
+     * @param message - text of the message
+     * @param level - log level
+     */
+    void log(final ItemHandle item, final String message, final String level) {
+        if (Spool.isEnabled()) {
+            if (item != null) {
+                Spool.get().log(item.get(), message, level, new Date());
+            }
+            return;
+        }
+        if (!async || closed) {
+            deferred.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String itemId;
+                    try {
+                        itemId = item == null ? null : item.get();
+                    } catch (IllegalStateException ex) {
+                        LOGGER.debug("Log message dropped", ex);
+                        return;
+                    }
+                    long start = ReporterMetrics.start();
+                    Utils.sendLog(itemId, message, level, null);
+                    ReporterMetrics.record("log.send", start);
+                }
+            });
+            return;
+        }
+        if (item == null) {
+            return;
+        }
+        Entry entry = new Entry(item, message, level, System.currentTimeMillis());
+        try {
+            if (queue.offer(entry)) {
+                return;
+            }
+            if (policy == OverflowPolicy.SPILL) {
+                ReporterMetrics.increment("log.spilled");
+                spillFile.append(entry);
+            } else if (policy == OverflowPolicy.DROP_DEBUG && ("DEBUG".equalsIgnoreCase(level) || "TRACE".equalsIgnoreCase(level))) {
+                ReporterMetrics.increment("log.dropped");
+                LOGGER.debug("Log queue is full, message dropped");
+            } else {
+                queue.put(entry);
+            }
+        } catch (IOException ex) {
+            LOGGER.debug("Could not spill log message, waiting for the queue", ex);
+            putUninterruptibly(entry);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            ReporterMetrics.increment("log.dropped");
+            LOGGER.debug("Interrupted while waiting for log queue, message dropped", ex);
+        }
+    }
+
+    private void putUninterruptibly(Entry entry) {
+        try {
+            queue.put(entry);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            ReporterMetrics.increment("log.dropped");
+            LOGGER.debug("Interrupted while waiting for log queue, message dropped", ex);
+        }
+    }
+
+    /**
+     * Block until all messages logged so far have been sent
+     */
+    void flush() {
+        await(mark());
+    }
+
+    /**
+     * Mark the messages logged so far. The mark is taken on the thread that logged them and can be
+     * waited for on another one, which must not wait for it before test items the messages belong to
+     * have been started.
+     *
+     * @return latch counted down once the messages logged before the mark have been sent
+     */
+    CountDownLatch mark() {
+        Entry marker = Entry.marker();
+        if (!async || closed) {
+            marker.done.countDown();
+            return marker.done;
+        }
+        try {
+            queue.put(marker);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while marking log queue", ex);
+            marker.done.countDown();
+        }
+        return marker.done;
+    }
+
+    /**
+     * @param mark - mark returned by {@link #mark()}
+     */
+    void await(CountDownLatch mark) {
+        try {
+            mark.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while flushing log queue", ex);
+        }
+    }
+
+    /**
+     * Send all pending messages and stop the background thread
+     */
+    @Override
+    public void close() {
+        if (async && !closed) {
+            await(mark());
+            closed = true;
+            worker.interrupt();
+        }
+    }
+
+    private void sendLoop() {
+        Batch batch = new Batch();
+        List<Entry> waiting = new ArrayList<>();
+        while (!closed) {
+            Entry entry;
+            try {
+                long timeout = batch.requests.isEmpty() ? batchInterval : batch.start + batchInterval - System.currentTimeMillis();
+                if (!waiting.isEmpty()) {
+                    timeout = Math.min(timeout, WAITING_RECHECK_INTERVAL);
+                }
+                entry = queue.poll(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (entry == null) {
+                if (batch.isDue()) {
+                    batch.send();
+                }
+                loadSpilled(waiting, batch);
+            } else {
+                waiting.add(entry);
+            }
+            sendReady(waiting, batch);
+        }
+    }
+
+    /**
+     * Send the waiting entries whose test items are known and release the markers that have nothing
+     * left to wait for. An entry of an item that hasn't been started stays waiting, and so do the later
+     * entries of the same item, but the entries of other items don't wait for it. Its item may be started by
+     * a test thread that is waiting for room in the queue, so the worker must keep draining the queue.
+     */
+    private void sendReady(List<Entry> waiting, Batch batch) {
+        Set<ItemHandle> blocked = Collections.newSetFromMap(new IdentityHashMap<ItemHandle, Boolean>());
+        int i = 0;
+        while (i < waiting.size()) {
+            Entry entry = waiting.get(i);
+            if (entry.done != null) {
+                if (!blocked.isEmpty()) {
+                    i++;
+                    continue;
+                }
+                waiting.remove(i);
+                batch.send();
+                if (loadSpilled(waiting, batch)) {
+                    // spilled entries were logged before the mark
+                    waiting.add(entry);
+                } else {
+                    entry.done.countDown();
+                }
+                continue;
+            }
+            if (blocked.contains(entry.item) || !entry.isReady()) {
+                blocked.add(entry.item);
+                i++;
+                continue;
+            }
+            waiting.remove(i);
+            batch.add(entry);
+        }
+    }
+
+    /**
+     * Send the spilled entries whose test items are known, the others are added to the waiting ones
+     *
+     * @return true if anything has been spilled
+     */
+    private boolean loadSpilled(List<Entry> waiting, Batch batch) {
+        List<ItemHandle> items = new ArrayList<>();
+        java.io.File file = spillFile.take(items);
+        if (file == null) {
+            return false;
+        }
+        Set<ItemHandle> waitingItems = Collections.newSetFromMap(new IdentityHashMap<ItemHandle, Boolean>());
+        for (Entry entry : waiting) {
+            waitingItems.add(entry.item);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                Entry entry;
+                try {
+                    entry = Entry.read(in, items);
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (waitingItems.contains(entry.item) || !entry.isReady()) {
+                    waitingItems.add(entry.item);
+                    waiting.add(entry);
+                } else {
+                    batch.add(entry);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.debug("Could not read spilled log messages", ex);
+        }
+        FileUtils.deleteQuietly(file);
+        return true;
+    }
+
+    /**
+     * Log requests collected by the worker
+     */
+    private final class Batch {
+        private final List<SaveLogRQ> requests = new ArrayList<>();
+        private long bytes;
+        private long start;
+
+        private void add(Entry entry) {
+            SaveLogRQ rq = entry.toRequest();
+            if (rq == null) {
+                return;
+            }
+            if (requests.isEmpty()) {
+                start = System.currentTimeMillis();
+            }
+            requests.add(rq);
+            bytes += entry.size();
+            if (requests.size() >= batchSize || bytes >= batchBytes || isDue()) {
+                send();
+            }
+        }
+
+        private boolean isDue() {
+            return !requests.isEmpty() && System.currentTimeMillis() - start >= batchInterval;
+        }
+
+        private void send() {
+            LogPipeline.send(requests);
+            bytes = 0;
+        }
+    }
+
+    private static void send(List<SaveLogRQ> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            ReportPortalClient.get().saveLogs(new ArrayList<>(batch));
+        } catch (Exception ex) {
+            LOGGER.debug("Could not send " + batch.size() + " log messages", ex);
+        }
+        batch.clear();
+    }
+
+    private static final class Entry {
+        private final ItemHandle item;
+        private final String message;
+        private final String level;
+        private final long time;
+        private final CountDownLatch done;
+
+        private Entry(ItemHandle item, String message, String level, long time) {
+            this(item, message, level, time, null);
+        }
+
+        private Entry(ItemHandle item, String message, String level, long time, CountDownLatch done) {
+            this.item = item;
+            this.message = message;
+            this.level = level;
+            this.time = time;
+            this.done = done;
+        }
+
+        /**
+         * @return entry the worker counts down once everything queued before it has been sent
+         */
+        private static Entry marker() {
+            return new Entry(null, null, null, 0, new CountDownLatch(1));
+        }
+
+        private long size() {
+            return message == null ? 0 : message.length();
+        }
+
+        /**
+         * @return true if the test item is known or has failed, a test item not started within
+         * {@code rp.item.timeout} ms of the entry is failed
+         */
+        private boolean isReady() {
+            if (!item.isDone() && System.currentTimeMillis() - time >= ItemHandle.getTimeout()) {
+                item.fail(new IllegalStateException("Test item has not been started within " + ItemHandle.getTimeout() + " ms"));
+            }
+            return item.isDone();
+        }
+
+        /**
+         * @return request for the entry or null if its test item could not be started
+         */
+        private SaveLogRQ toRequest() {
+            String itemId;
+            try {
+                itemId = item.get();
+            } catch (IllegalStateException ex) {
+                LOGGER.debug("Log message dropped", ex);
+                return null;
+            }
+            SaveLogRQ rq = new SaveLogRQ();
+            rq.setTestItemId(itemId);
+            rq.setMessage(message);
+            rq.setLevel(level);
+            rq.setLogTime(new Date(time));
+            return rq;
+        }
+
+        /**
+         * @param itemIndex - index of the test item in the items of the spill file
+         */
+        private void write(DataOutputStream out, int itemIndex) throws IOException {
+            out.writeInt(itemIndex);
+            writeString(out, message);
+            writeString(out, level);
+            out.writeLong(time);
+        }
+
+        private static Entry read(DataInputStream in, List<ItemHandle> items) throws IOException {
+            ItemHandle item = items.get(in.readInt());
+            String message = readString(in);
+            String level = readString(in);
+            return new Entry(item, message, level, in.readLong());
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Overflow storage for the SPILL policy. The worker takes the whole file at once,
+     * new messages go to a new file. Entries refer to their test items by index, the items are kept
+     * in memory and resolved by the worker, so spilling never waits for an item to be started.
+     */
+    private static final class SpillFile {
+        private java.io.File file;
+        private DataOutputStream out;
+        private final Map<ItemHandle, Integer> itemIndexes = new IdentityHashMap<>();
+        private final List<ItemHandle> items = new ArrayList<>();
+
+        private synchronized void append(Entry entry) throws IOException {
+            if (out == null) {
+                file = java.io.File.createTempFile("rp_logs_", ".spill", SPILL_DIR);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            }
+            Integer itemIndex = itemIndexes.get(entry.item);
+            if (itemIndex == null) {
+                itemIndex = items.size();
+                itemIndexes.put(entry.item, itemIndex);
+                items.add(entry.item);
+            }
+            entry.write(out, itemIndex);
+        }
+
+        /**
+         * @param items - receives the test items the entries of the file refer to
+         * @return the spill file or null if nothing has been spilled
+         */
+        private synchronized java.io.File take(List<ItemHandle> items) {
+            if (out == null) {
+                return null;
+            }
+            items.addAll(this.items);
+            this.items.clear();
+            itemIndexes.clear();
+            try {
+                out.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close spill file", ex);
+            }
+            java.io.File taken = file;
+            out = null;
+            file = null;
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.mishaninss.reportportal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the launch state in memory. Used on its own when all runners share one JVM, and by the fork
+ * hosting a {@link SocketCoordinator}. The launch is finished by the last of the runners counted
+ * with {@link Coordinators#countRunners()}, at least one.
+ * <p>
+ * A host that exits before the other runners have left hands the state off with {@link #handOff(long)},
+ * the next host goes on with it from {@link #MemoryCoordinator(Launch, int)}.
+ */
+final class MemoryCoordinator implements Coordinator {
+    private Launch launch;
+    private int remaining;
+    private boolean handedOff;
+    private final Map<String, String> features = new LinkedHashMap<>();
+    private final Set<String> claimed = new HashSet<>();
+
+    MemoryCoordinator() {
+    }
+
+    /**
+     * @param launch - launch handed off by another host, with the item ids of its features
+     * @param remaining - number of runners that haven't left the launch yet
+     */
+    MemoryCoordinator(Launch launch, int remaining) {
+        this.launch = launch;
+        this.remaining = remaining;
+        features.putAll(launch.getFeatureItemIds());
+    }
+
+    @Override
+    public synchronized Launch joinLaunch(Callable<Launch> starter) {
+        checkServing();
+        if (launch == null) {
+            launch = Coordinators.call(starter);
+            features.putAll(launch.getFeatureItemIds());
+            remaining = Math.max(1, Coordinators.countRunners());
+            notifyAll();
+        }
+        return launch;
+    }
+
+    /**
+     * Wait until a runner has started the launch
+     *
+     * @param timeout - maximum time to wait in milliseconds
+     * @return ids of the launch
+     * @throws IllegalStateException if the launch hasn't been started within the timeout
+     */
+    synchronized Launch awaitLaunch(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (launch == null) {
+            checkServing();
+            long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                throw new IllegalStateException("Launch hasn't been started within " + timeout + " ms");
+            }
+            wait(remainingTime);
+        }
+        return launch;
+    }
+
+    @Override
+    public String getOrCreateFeatureItemId(String featureId, Callable<String> creator) {
+        String itemId;
+        long start = ReporterMetrics.start();
+        try {
+            itemId = claimFeature(featureId, FileWaiter.getTimeout());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for feature " + featureId, ex);
+        } finally {
+            ReporterMetrics.record("coordination.wait", start);
+        }
+        if (itemId != null) {
+            return itemId;
+        }
+        try {
+            itemId = Coordinators.call(creator);
+        } finally {
+            completeFeature(featureId, itemId);
+        }
+        return itemId;
+    }
+
+    /**
+     * Get the item id of a feature or the right to create it. A caller that got the right must
+     * call {@link #completeFeature} afterwards, the others wait until it does.
+     *
+     * @param featureId - Cucumber id of the feature
+     * @param timeout - maximum time to wait for another creator in milliseconds
+     * @return item id of the feature or null if the caller has to create the item
+     * @throws IllegalStateException if the item hasn't been created within the timeout
+     */
+    synchronized String claimFeature(String featureId, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            checkServing();
+            String itemId = features.get(featureId);
+            if (itemId != null) {
+                return itemId;
+            }
+            if (claimed.add(featureId)) {
+                return null;
+            }
+            long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                throw new IllegalStateException("Feature " + featureId + " hasn't been created within " + timeout + " ms");
+            }
+            wait(remainingTime);
+        }
+    }
+
+    /**
+     * Publish the item of a claimed feature
+     *
+     * @param featureId - Cucumber id of the feature
+     * @param itemId - item id of the feature, null if it could not be created and another caller should try
+     */
+    synchronized void completeFeature(String featureId, String itemId) {
+        claimed.remove(featureId);
+        if (itemId != null) {
+            features.put(featureId, itemId);
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized List<String> leave() {
+        checkServing();
+        remaining--;
+        notifyAll();
+        return remaining <= 0 ? new ArrayList<>(features.values()) : null;
+    }
+
+    /**
+     * All runners share the JVM, none of them is counted down by another
+     */
+    @Override
+    public boolean isExpired() {
+        return false;
+    }
+
+    /**
+     * All runners share the JVM, nobody is left to take over
+     */
+    @Override
+    public void takeOver(LaunchFinisher finisher) {
+    }
+
+    /**
+     * Wait until every runner has left
+     *
+     * @param timeout - maximum time to wait in milliseconds
+     * @return true if every runner has left
+     */
+    synchronized boolean awaitRunners(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (launch != null && remaining > 0) {
+            long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                return false;
+            }
+            wait(remainingTime);
+        }
+        return true;
+    }
+
+    /**
+     * Stop serving the state, so another host can go on with it. Features being created are waited for.
+     *
+     * @param timeout - maximum time to wait for features being created in milliseconds
+     * @return the launch with the item ids of all features, null if it hasn't been started
+     */
+    synchronized Launch handOff(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!claimed.isEmpty()) {
+            long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                break;
+            }
+            wait(remainingTime);
+        }
+        handedOff = true;
+        notifyAll();
+        return launch == null ? null : new Launch(launch.getLaunchId(), launch.getRootSuiteId(), new LinkedHashMap<>(features));
+    }
+
+    /**
+     * @return true if the state has been handed off to another host
+     */
+    synchronized boolean isHandedOff() {
+        return handedOff;
+    }
+
+    /**
+     * @return number of runners that haven't left the launch yet
+     */
+    synchronized int getRemaining() {
+        return remaining;
+    }
+
+    private void checkServing() {
+        if (handedOff) {
+            throw new IllegalStateException("Launch state has been handed off");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.mishaninss.reportportal;
+
+import gherkin.formatter.model.ExamplesTableRow;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Names of the iterations of a Scenario Outline, one per example row. A name is formatted only when
+ * its example starts, so a large examples table costs no more than the table itself. Names look like
+ * {@code " [cell1, cell2]"} and are cut to {@value #MAX_LENGTH} characters, the builder never grows
+ * beyond that.
+ */
+final class OutlineIterations extends AbstractQueue<String> {
+    static final int MAX_LENGTH = 156;
+    private static final String ELLIPSIS = "...]";
+
+    private final List<ExamplesTableRow> rows;
+    private final StringBuilder builder = new StringBuilder(MAX_LENGTH + 1);
+    private int next;
+
+    /**
+     * @param rows - rows of the examples table, the first one is the header
+     */
+    OutlineIterations(List<ExamplesTableRow> rows) {
+        this.rows = rows;
+        next = 1;
+    }
+
+    @Override
+    public boolean offer(String name) {
+        throw new UnsupportedOperationException("Iteration names are taken from the examples table");
+    }
+
+    @Override
+    public String poll() {
+        return next < rows.size() ? format(rows.get(next++).getCells()) : null;
+    }
+
+    @Override
+    public String peek() {
+        return next < rows.size() ? format(rows.get(next).getCells()) : null;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, rows.size() - next);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int row = next;
+
+            @Override
+            public boolean hasNext() {
+                return row < rows.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return format(rows.get(row++).getCells());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Same as {@code " " + Arrays.toString(cells.toArray())} cut to {@value #MAX_LENGTH} characters,
+     * without building the whole string
+     */
+    private String format(List<String> cells) {
+        builder.setLength(0);
+        builder.append(" [");
+        boolean complete = true;
+        for (int i = 0; i < cells.size(); i++) {
+            if (builder.length() > MAX_LENGTH) {
+                complete = false;
+                break;
+            }
+            if (i > 0) {
+                builder.append(", ");
+            }
+            String cell = String.valueOf(cells.get(i));
+            builder.append(cell, 0, Math.min(cell.length(), Math.max(0, MAX_LENGTH + 1 - builder.length())));
+        }
+        if (complete) {
+            builder.append(']');
+        }
+        if (builder.length() > MAX_LENGTH) {
+            builder.setLength(MAX_LENGTH - ELLIPSIS.length());
+            builder.append(ELLIPSIS);
+        }
+        return builder.toString();
+    }
+}
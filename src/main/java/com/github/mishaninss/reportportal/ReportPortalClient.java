@@ -0,0 +1,183 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.reportportal.cucumber.Utils;
+import com.epam.reportportal.restclient.endpoint.MultiPartRequest;
+import com.epam.reportportal.restclient.endpoint.RestEndpoint;
+import com.epam.reportportal.restclient.endpoint.exception.RestEndpointIOException;
+import com.epam.reportportal.service.ReportPortalService;
+import com.epam.ta.reportportal.ws.model.BatchSaveOperatingRS;
+import com.epam.ta.reportportal.ws.model.FinishExecutionRQ;
+import com.epam.ta.reportportal.ws.model.FinishTestItemRQ;
+import com.epam.ta.reportportal.ws.model.OperationCompletionRS;
+import com.epam.ta.reportportal.ws.model.StartTestItemRQ;
+import com.epam.ta.reportportal.ws.model.issue.Issue;
+import com.epam.ta.reportportal.ws.model.item.UpdateTestItemRQ;
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import com.google.common.base.Supplier;
+import org.apache.commons.lang3.reflect.FieldUtils;
+
+import java.net.URLConnection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Direct access to the Report Portal REST endpoint used by the Cucumber agent, for requests
+ * the agent's {@link Utils} doesn't provide. The endpoint is looked up once per JVM.
+ */
+final class ReportPortalClient {
+    private static final String BATCH_JSON_PART = "json_request_part";
+    private static final String BATCH_BINARY_PART = "binary_part";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final String TO_INVESTIGATE = "TO_INVESTIGATE";
+
+    private static volatile ReportPortalClient instance;
+
+    private final ReportPortalService service;
+    private final RestEndpoint endpoint;
+    private final String apiBase;
+    private final String project;
+
+    private ReportPortalClient(ReportPortalService service, RestEndpoint endpoint, String apiBase, String project) {
+        this.service = service;
+        this.endpoint = endpoint;
+        this.apiBase = apiBase;
+        this.project = project;
+    }
+
+    static ReportPortalClient get() {
+        ReportPortalClient client = instance;
+        if (client == null) {
+            synchronized (ReportPortalClient.class) {
+                client = instance;
+                if (client == null) {
+                    client = resolve();
+                    instance = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ReportPortalClient resolve() {
+        try {
+            Supplier<ReportPortalService> reportPortalService = (Supplier<ReportPortalService>) FieldUtils.readStaticField(Utils.class, "reportPortalService", true);
+            ReportPortalService service = reportPortalService.get();
+            RestEndpoint endpoint = (RestEndpoint) FieldUtils.readField(service, "endpoint", true);
+            String apiBase = (String) FieldUtils.readField(service, "apiBase", true);
+            String project = (String) FieldUtils.readField(service, "project", true);
+            return new ReportPortalClient(service, endpoint, apiBase, project);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Could not access Report Portal service", ex);
+        }
+    }
+
+    /**
+     * Start a test item
+     *
+     * @param parentId - id of the parent item, null for a root item
+     * @param rq - start request
+     * @return id of the item
+     * @throws RestEndpointIOException if the request fails
+     */
+    String startTestItem(String parentId, StartTestItemRQ rq) throws RestEndpointIOException {
+        long start = ReporterMetrics.start();
+        try {
+            return parentId == null ? service.startRootTestItem(rq).getId() : service.startTestItem(parentId, rq).getId();
+        } finally {
+            ReporterMetrics.record("item.start", start);
+        }
+    }
+
+    /**
+     * Finish a test item with the given end time
+     *
+     * @param itemId - id of the item
+     * @param status - status of the item
+     * @param issueComments - comments of the failure, can be null
+     * @param endTime - time the item was finished at
+     * @throws RestEndpointIOException if the request fails
+     */
+    void finishTestItem(String itemId, String status, String issueComments, Date endTime) throws RestEndpointIOException {
+        FinishTestItemRQ rq = new FinishTestItemRQ();
+        rq.setEndTime(endTime);
+        rq.setStatus(status);
+        if (issueComments != null) {
+            Issue issue = new Issue();
+            issue.setIssueType(TO_INVESTIGATE);
+            issue.setComment(issueComments);
+            rq.setIssue(issue);
+        }
+        long start = ReporterMetrics.start();
+        try {
+            service.finishTestItem(itemId, rq);
+        } finally {
+            ReporterMetrics.record("item.finish", start);
+        }
+    }
+
+    /**
+     * Finish a launch with the given end time
+     *
+     * @param launchId - id of the launch
+     * @param endTime - time the launch was finished at
+     * @throws RestEndpointIOException if the request fails
+     */
+    void finishLaunch(String launchId, Date endTime) throws RestEndpointIOException {
+        FinishExecutionRQ rq = new FinishExecutionRQ();
+        rq.setEndTime(endTime);
+        long start = ReporterMetrics.start();
+        try {
+            service.finishLaunch(launchId, rq);
+        } finally {
+            ReporterMetrics.record("launch.finish", start);
+        }
+    }
+
+    /**
+     * Replace description and tags of a test item
+     *
+     * @param itemId - id of the item
+     * @param description - new description
+     * @param tags - new tags
+     * @throws RestEndpointIOException if the request fails
+     */
+    void updateTestItem(String itemId, String description, Set<String> tags) throws RestEndpointIOException {
+        UpdateTestItemRQ rq = new UpdateTestItemRQ();
+        rq.setDescription(description);
+        rq.setTags(tags);
+        long start = ReporterMetrics.start();
+        try {
+            endpoint.put(apiBase + "/" + project + "/item/" + itemId + "/update", rq, OperationCompletionRS.class);
+        } finally {
+            ReporterMetrics.record("item.update", start);
+        }
+    }
+
+    /**
+     * Save several log entries with a single multipart request
+     *
+     * @param rqs - log entries, attachments are sent as binary parts
+     * @return per entry results
+     * @throws RestEndpointIOException if the request fails
+     */
+    BatchSaveOperatingRS saveLogs(List<SaveLogRQ> rqs) throws RestEndpointIOException {
+        MultiPartRequest.Builder<List<SaveLogRQ>> builder = new MultiPartRequest.Builder<>();
+        builder.addSerializedPart(BATCH_JSON_PART, rqs);
+        for (SaveLogRQ rq : rqs) {
+            SaveLogRQ.File file = rq.getFile();
+            if (file != null) {
+                String contentType = URLConnection.guessContentTypeFromName(file.getName());
+                builder.addBinaryPart(BATCH_BINARY_PART, file.getName(),
+                        contentType == null ? DEFAULT_CONTENT_TYPE : contentType, file.getContent());
+            }
+        }
+        long start = ReporterMetrics.start();
+        try {
+            return endpoint.post(apiBase + "/" + project + "/log", builder.build(), BatchSaveOperatingRS.class);
+        } finally {
+            ReporterMetrics.record("log.batch", start);
+        }
+    }
+}
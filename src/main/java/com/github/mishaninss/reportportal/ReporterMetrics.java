@@ -0,0 +1,245 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the reporter, shared by all reporters of the JVM.
+ * <p>
+ * Enabled with {@code rp.metrics=true}. Every operation type (Report Portal requests, coordination waits,
+ * file I/O) gets a histogram with power of two microsecond buckets. Operations named {@code coordination.*}
+ * are time spent waiting for other forks. On close every fork writes a JSON summary to
+ * {@code ./target/rp_metrics_fork_N.json}.
+ */
+public final class ReporterMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReporterMetrics.class);
+
+    static final String METRICS_PROPERTY_NAME = "rp.metrics";
+    static final String COORDINATION_PREFIX = "coordination.";
+    private static final String SUMMARY_FILE_NAME = "./target/rp_metrics_fork_%d.json";
+
+    private static final boolean ENABLED = SystemProperties.getBoolean(METRICS_PROPERTY_NAME, false);
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+
+    private ReporterMetrics() {
+    }
+
+    /**
+     * @return true if metrics are collected
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @return start time to pass to {@link #record}
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record an operation that has just finished
+     *
+     * @param operation - type of the operation
+     * @param start - value returned by {@link #start()} before the operation
+     */
+    static void record(String operation, long start) {
+        if (ENABLED) {
+            histogram(operation).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Increase a counter by one
+     *
+     * @param counter - name of the counter
+     */
+    static void increment(String counter) {
+        add(counter, 1);
+    }
+
+    /**
+     * Increase a counter
+     *
+     * @param counter - name of the counter
+     * @param delta - value to add
+     */
+    static void add(String counter, long delta) {
+        if (ENABLED) {
+            AtomicLong value = COUNTERS.get(counter);
+            if (value == null) {
+                AtomicLong newValue = new AtomicLong();
+                value = COUNTERS.putIfAbsent(counter, newValue);
+                if (value == null) {
+                    value = newValue;
+                }
+            }
+            value.addAndGet(delta);
+        }
+    }
+
+    /**
+     * @param operation - type of the operation
+     * @return number of recorded operations
+     */
+    public static long getCount(String operation) {
+        Histogram histogram = HISTOGRAMS.get(operation);
+        return histogram == null ? 0 : histogram.count.get();
+    }
+
+    /**
+     * @param operation - type of the operation
+     * @return total time of recorded operations in nanoseconds
+     */
+    public static long getTotalNanos(String operation) {
+        Histogram histogram = HISTOGRAMS.get(operation);
+        return histogram == null ? 0 : histogram.total.get();
+    }
+
+    /**
+     * @param counter - name of the counter
+     * @return value of the counter
+     */
+    public static long getCounter(String counter) {
+        AtomicLong value = COUNTERS.get(counter);
+        return value == null ? 0 : value.get();
+    }
+
+    /**
+     * @return total time spent waiting for other forks in nanoseconds
+     */
+    public static long getCoordinationWaitNanos() {
+        long total = 0;
+        for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+            if (entry.getKey().startsWith(COORDINATION_PREFIX)) {
+                total += entry.getValue().total.get();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param forkNumber - number of the fork
+     * @return summary of all metrics
+     */
+    public static String toJson(int forkNumber) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"fork\": ").append(forkNumber);
+        json.append(",\n  \"coordinationWaitMs\": ").append(millis(getCoordinationWaitNanos()));
+        json.append(",\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(COUNTERS).entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": ").append(entry.getValue().get());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"operations\": {");
+        separator = "\n";
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": ");
+            entry.getValue().appendJson(json);
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Write the summary of the fork to ./target
+     *
+     * @param forkNumber - number of the fork
+     */
+    static void writeSummary(int forkNumber) {
+        if (!ENABLED) {
+            return;
+        }
+        java.io.File file = new java.io.File(String.format(SUMMARY_FILE_NAME, forkNumber));
+        try {
+            FileUtils.write(file, toJson(forkNumber), StandardCharsets.UTF_8.name());
+        } catch (IOException ex) {
+            LOGGER.debug("Could not write metrics summary", ex);
+        }
+    }
+
+    private static Histogram histogram(String operation) {
+        Histogram histogram = HISTOGRAMS.get(operation);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = HISTOGRAMS.putIfAbsent(operation, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Latency histogram, bucket i counts operations shorter than 2^i microseconds
+     */
+    private static final class Histogram {
+        private static final int BUCKETS = 40;
+        private static final double[] PERCENTILES = {50, 90, 99};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        private void appendJson(StringBuilder json) {
+            long recorded = count.get();
+            json.append("{\"count\": ").append(recorded)
+                    .append(", \"totalMs\": ").append(millis(total.get()))
+                    .append(", \"maxMs\": ").append(millis(max.get()));
+            for (double percentile : PERCENTILES) {
+                json.append(", \"p").append((int) percentile).append("Ms\": ").append(millis(upperBound(recorded, percentile)));
+            }
+            json.append("}");
+        }
+
+        /**
+         * @return upper bound in nanoseconds of the bucket containing the percentile
+         */
+        private long upperBound(long recorded, double percentile) {
+            long rank = (long) Math.ceil(recorded * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min((1L << i) * 1000, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.github.mishaninss.reportportal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Lease of the runners of a JVM on the launch, kept in a file of the lease directory. The file holds
+ * the owner pid, the number of runners that have joined the launch but haven't left yet and the time
+ * of the last renewal. A daemon thread renews it every {@code rp.lease.heartbeat} ms.
+ * <p>
+ * A lease not renewed for {@code rp.lease.timeout} ms belongs to a fork that died. The fork that finds
+ * it deletes the file and counts its runners down, so a crashed fork doesn't keep the launch in progress.
+ * If the owner turns out to be alive it notices the missing file at its next renewal, doesn't count those
+ * runners again and stops reporting, see {@link #isExpired()}. The default timeout of ten seconds, five missed
+ * heartbeats, detects a dead fork within seconds; a fork paused for longer is counted down like a dead one.
+ * Lease files are changed only under the lock of the directory, which is taken before the lease itself.
+ */
+final class RunnerLease {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RunnerLease.class);
+
+    static final String HEARTBEAT_PROPERTY_NAME = "rp.lease.heartbeat";
+    static final String TIMEOUT_PROPERTY_NAME = "rp.lease.timeout";
+    static final long DEFAULT_HEARTBEAT = 2000;
+    static final long DEFAULT_TIMEOUT = 10000;
+
+    private static final String LEASE_EXTENSION = ".lease";
+    private static final String LOCK_FILE_NAME = "leases.lock";
+    private static final String OWNER = "owner";
+    private static final String RUNNERS = "runners";
+    private static final String RENEWED = "renewed";
+
+    private final java.io.File dir;
+    private final java.io.File file;
+    private final String owner;
+    private int runners;
+    private int expiredRunners;
+    private Thread heartbeat;
+    private volatile boolean expired;
+
+    /**
+     * @param dir - lease directory shared by all forks
+     */
+    RunnerLease(java.io.File dir) {
+        this.dir = dir;
+        owner = ManagementFactory.getRuntimeMXBean().getName();
+        file = new java.io.File(dir, owner.replaceAll("[^A-Za-z0-9.-]", "_") + "_"
+                + Long.toHexString(System.nanoTime()) + LEASE_EXTENSION);
+    }
+
+    /**
+     * @return time in milliseconds after which a lease that hasn't been renewed is expired, {@code rp.lease.timeout}
+     */
+    static long getTimeout() {
+        return SystemProperties.getLong(TIMEOUT_PROPERTY_NAME, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @return interval of the lease renewal in milliseconds, {@code rp.lease.heartbeat}
+     */
+    static long getHeartbeat() {
+        return Math.max(1, SystemProperties.getLong(HEARTBEAT_PROPERTY_NAME, DEFAULT_HEARTBEAT));
+    }
+
+    /**
+     * @param dir - lease directory
+     * @return lock of all lease files of the directory
+     */
+    static InterProcessLock lock(java.io.File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new RuntimeException("Could not create lease directory " + dir);
+        }
+        return InterProcessLock.acquire(new java.io.File(dir, LOCK_FILE_NAME));
+    }
+
+    /**
+     * Register a runner joining the launch and start renewing the lease
+     */
+    void acquire() {
+        try (InterProcessLock ignored = lock(dir)) {
+            synchronized (this) {
+                checkExpired();
+                if (expired) {
+                    return;
+                }
+                runners++;
+                write();
+                if (heartbeat == null) {
+                    heartbeat = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            renew();
+                        }
+                    }, "rp-lease-heartbeat");
+                    heartbeat.setDaemon(true);
+                    heartbeat.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregister a leaving runner, to be called under {@link #lock(java.io.File)}
+     *
+     * @return true if the runner still held the lease, false if its lease has expired and it has
+     * already been counted down by another fork
+     */
+    synchronized boolean release() {
+        checkExpired();
+        if (expiredRunners > 0) {
+            expiredRunners--;
+            return false;
+        }
+        runners = Math.max(0, runners - 1);
+        if (runners == 0) {
+            delete(file);
+        } else {
+            write();
+        }
+        return true;
+    }
+
+    /**
+     * Delete the expired leases of a directory, to be called under {@link #lock(java.io.File)}
+     *
+     * @param dir - lease directory
+     * @return number of runners of the deleted leases
+     */
+    static int reapExpired(java.io.File dir) {
+        long expiry = System.currentTimeMillis() - getTimeout();
+        int runners = 0;
+        for (java.io.File lease : listLeases(dir)) {
+            Properties properties = read(lease);
+            if (properties == null) {
+                continue;
+            }
+            long renewed = parseLong(properties.getProperty(RENEWED));
+            if (renewed < expiry && delete(lease)) {
+                int leaseRunners = (int) parseLong(properties.getProperty(RUNNERS));
+                LOGGER.warn("Fork {} hasn't renewed its lease for {} ms, counting down its {} runner(s)",
+                        properties.getProperty(OWNER), System.currentTimeMillis() - renewed, leaseRunners);
+                runners += leaseRunners;
+            }
+        }
+        return runners;
+    }
+
+    /**
+     * @return true if the lease has expired while runners held it and another fork has counted them down
+     */
+    boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * @param dir - lease directory
+     * @return true if any fork holds a lease
+     */
+    static boolean isHeld(java.io.File dir) {
+        return listLeases(dir).length > 0;
+    }
+
+    private void renew() {
+        long interval = getHeartbeat();
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ex) {
+                LOGGER.debug("Lease heartbeat interrupted", ex);
+                return;
+            }
+            try (InterProcessLock ignored = lock(dir)) {
+                synchronized (this) {
+                    if (runners == 0) {
+                        heartbeat = null;
+                        return;
+                    }
+                    checkExpired();
+                    if (runners > 0) {
+                        write();
+                    }
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.debug("Could not renew lease " + file, ex);
+            }
+        }
+    }
+
+    /**
+     * A lease file missing while runners hold it has been deleted as expired by another fork
+     */
+    private void checkExpired() {
+        if (runners > 0 && !file.exists()) {
+            LOGGER.warn("Lease {} has expired, its {} runner(s) have been counted down by another fork and stop reporting",
+                    file, runners);
+            expiredRunners += runners;
+            runners = 0;
+            expired = true;
+        }
+    }
+
+    private void write() {
+        Properties properties = new Properties();
+        properties.setProperty(OWNER, owner);
+        properties.setProperty(RUNNERS, String.valueOf(runners));
+        properties.setProperty(RENEWED, String.valueOf(System.currentTimeMillis()));
+        java.io.File tmpFile = new java.io.File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                properties.store(out, null);
+            }
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not write lease " + file, ex);
+        }
+    }
+
+    private static Properties read(java.io.File lease) {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(lease)) {
+            properties.load(in);
+            return properties;
+        } catch (IOException ex) {
+            LOGGER.debug("Could not read lease " + lease, ex);
+            return null;
+        }
+    }
+
+    private static java.io.File[] listLeases(java.io.File dir) {
+        java.io.File[] leases = dir.listFiles(new java.io.FileFilter() {
+            @Override
+            public boolean accept(java.io.File file) {
+                return file.getName().endsWith(LEASE_EXTENSION);
+            }
+        });
+        return leases == null ? new java.io.File[0] : leases;
+    }
+
+    private static boolean delete(java.io.File lease) {
+        try {
+            Files.delete(lease.toPath());
+            return true;
+        } catch (IOException ex) {
+            LOGGER.debug("Could not delete lease " + lease, ex);
+            return false;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException | NullPointerException ex) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.reportportal.listeners.ReportPortalListenerContext;
+
+/**
+ * Scenario item running on the current thread, for log appenders.
+ * <p>
+ * {@code ReportPortalListenerContext} holds a plain id, which isn't known when a scenario has been started
+ * with {@code rp.item.async=true}. The context keeps the {@link ItemHandle} of the scenario instead and
+ * copies its id to {@code ReportPortalListenerContext} as soon as Report Portal has answered, checked at
+ * every step and hook. Appenders that can wait for the id should use {@link #getRunningNowItem()}.
+ */
+public final class RunningItemContext {
+    private static final ThreadLocal<ItemHandle> RUNNING_NOW_ITEM = new ThreadLocal<>();
+
+    private RunningItemContext() {
+    }
+
+    /**
+     * @return scenario item running on the current thread, null if there is none
+     */
+    public static ItemHandle getRunningNowItem() {
+        return RUNNING_NOW_ITEM.get();
+    }
+
+    /**
+     * @param item - scenario item running on the current thread, null when it has finished
+     */
+    static void setRunningNowItem(ItemHandle item) {
+        RUNNING_NOW_ITEM.set(item);
+        ReportPortalListenerContext.setRunningNowItemId(idOf(item));
+    }
+
+    /**
+     * Publish the id of the running item to {@code ReportPortalListenerContext} if it has become known
+     */
+    static void refresh() {
+        ItemHandle item = RUNNING_NOW_ITEM.get();
+        if (item != null && ReportPortalListenerContext.getRunningNowItemId() == null) {
+            ReportPortalListenerContext.setRunningNowItemId(idOf(item));
+        }
+    }
+
+    private static String idOf(ItemHandle item) {
+        String itemId = item == null ? null : item.peek();
+        return itemId == null || Spool.isLocalId(itemId) ? null : itemId;
+    }
+}
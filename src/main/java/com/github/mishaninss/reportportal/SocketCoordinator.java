@@ -0,0 +1,631 @@
+package com.github.mishaninss.reportportal;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the launch state in one fork, the host, which serves it to the other forks over a loopback TCP socket.
+ * The first fork to need the state becomes the host: under an {@link InterProcessLock} it listens on
+ * {@code rp.coordinator.port} (a free port by default) and publishes the port in ./target, where the
+ * other forks look it up. Each call of another fork is a short request on its own connection; a fork that
+ * disconnects while creating a feature gives the creation up to the next fork asking for it.
+ * <p>
+ * Every request carries the token of the run, {@code rp.coordinator.token}, by default derived from
+ * {@code rp.launch} and the build directory. A fork that finds the coordinator of another run fails
+ * instead of joining its launch.
+ * <p>
+ * The launch is finished by the last runner to leave, in whichever fork it runs. A host that exits before
+ * the other runners have left doesn't wait for them: it hands the state off through a file in ./target
+ * and the next fork to call the coordinator becomes the host. State handed off more than an hour ago
+ * is dropped as a leftover of another run.
+ */
+final class SocketCoordinator implements Coordinator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocketCoordinator.class);
+
+    static final String PORT_PROPERTY_NAME = "rp.coordinator.port";
+    static final String TOKEN_PROPERTY_NAME = "rp.coordinator.token";
+
+    private static final String LAUNCH_NAME_PROPERTY_NAME = "rp.launch";
+    private static final java.io.File ADDRESS_FILE = new java.io.File("./target/rp_coordinator.address");
+    private static final java.io.File STATE_FILE = new java.io.File("./target/rp_coordinator.state");
+    private static final java.io.File LOCK_FILE = new java.io.File("./target/rp_coordinator.lock");
+    private static final long CONNECT_RETRY_INTERVAL = 50;
+    private static final long STATE_TTL = 60 * 60 * 1000;
+
+    private static final String PING = "PING";
+    private static final String LAUNCH = "LAUNCH";
+    private static final String FEATURE = "FEATURE";
+    private static final String LEAVE = "LEAVE";
+    private static final String OK = "OK";
+    private static final String ERROR = "ERROR";
+    private static final String FOREIGN = "FOREIGN";
+    private static final String MOVED = "MOVED";
+    private static final String CREATE = "CREATE";
+    private static final String CREATED = "CREATED";
+    private static final String FAILED = "FAILED";
+    private static final String LAST = "LAST";
+    private static final String WAIT = "WAIT";
+
+    private final String token;
+    private MemoryCoordinator state;
+    private ServerSocket serverSocket;
+    private InetSocketAddress address;
+    private boolean hooked;
+
+    SocketCoordinator() {
+        this(getToken());
+    }
+
+    SocketCoordinator(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return token of the run, {@code rp.coordinator.token} or a hash of {@code rp.launch} and the build directory
+     */
+    static String getToken() {
+        String token = SystemProperties.getString(TOKEN_PROPERTY_NAME, null);
+        if (token != null) {
+            return token;
+        }
+        String buildDir;
+        try {
+            buildDir = ADDRESS_FILE.getParentFile().getCanonicalPath();
+        } catch (IOException ex) {
+            buildDir = ADDRESS_FILE.getParentFile().getAbsolutePath();
+        }
+        String launchName = SystemProperties.getString(LAUNCH_NAME_PROPERTY_NAME, "");
+        return Hashing.sha1().hashString(launchName + "|" + buildDir, StandardCharsets.UTF_8).toString();
+    }
+
+    @Override
+    public Launch joinLaunch(final Callable<Launch> starter) {
+        return call(new Exchange<Launch>() {
+            @Override
+            public Launch local(MemoryCoordinator state) {
+                return state.joinLaunch(starter);
+            }
+
+            @Override
+            public Launch remote(Connection connection) throws IOException {
+                connection.send(token, LAUNCH);
+                connection.expectOk();
+                return new Launch(connection.in.readUTF(), connection.in.readUTF());
+            }
+        });
+    }
+
+    @Override
+    public String getOrCreateFeatureItemId(final String featureId, final Callable<String> creator) {
+        return call(new Exchange<String>() {
+            @Override
+            public String local(MemoryCoordinator state) {
+                return state.getOrCreateFeatureItemId(featureId, creator);
+            }
+
+            @Override
+            public String remote(Connection connection) throws IOException {
+                connection.send(token, FEATURE);
+                connection.out.writeUTF(featureId);
+                connection.out.flush();
+                connection.expectOk();
+                if (!CREATE.equals(connection.in.readUTF())) {
+                    return connection.in.readUTF();
+                }
+                String itemId = null;
+                try {
+                    itemId = Coordinators.call(creator);
+                } finally {
+                    try {
+                        if (itemId == null) {
+                            connection.out.writeUTF(FAILED);
+                        } else {
+                            connection.out.writeUTF(CREATED);
+                            connection.out.writeUTF(itemId);
+                        }
+                        connection.out.flush();
+                        connection.expectOk();
+                    } catch (IOException ex) {
+                        // the item exists, asking another host would create it twice
+                        throw new IllegalStateException("Could not publish feature " + featureId, ex);
+                    }
+                }
+                return itemId;
+            }
+        });
+    }
+
+    @Override
+    public List<String> leave() {
+        return call(new Exchange<List<String>>() {
+            @Override
+            public List<String> local(MemoryCoordinator state) {
+                return state.leave();
+            }
+
+            @Override
+            public List<String> remote(Connection connection) throws IOException {
+                connection.send(token, LEAVE);
+                connection.expectOk();
+                if (!LAST.equals(connection.in.readUTF())) {
+                    return null;
+                }
+                int count = connection.in.readInt();
+                List<String> itemIds = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    itemIds.add(connection.in.readUTF());
+                }
+                return itemIds;
+            }
+        });
+    }
+
+    /**
+     * Runners are counted down only when they leave
+     */
+    @Override
+    public boolean isExpired() {
+        return false;
+    }
+
+    /**
+     * The host hands the state off when it exits, any fork can finish the launch
+     */
+    @Override
+    public void takeOver(LaunchFinisher finisher) {
+    }
+
+    /**
+     * Stop hosting the state. If runners are still in progress the state is written to ./target for the
+     * next host, otherwise it is dropped.
+     */
+    synchronized void handOff() {
+        if (state == null) {
+            return;
+        }
+        try (InterProcessLock ignored = InterProcessLock.acquire(LOCK_FILE)) {
+            Launch launch = state.handOff(FileWaiter.getTimeout());
+            if (launch != null && state.getRemaining() > 0) {
+                writeState(launch, state.getRemaining());
+            } else {
+                FileUtils.deleteQuietly(STATE_FILE);
+            }
+            FileUtils.deleteQuietly(ADDRESS_FILE);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Could not hand off the launch state, the launch may be left unfinished", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while handing off the launch state", ex);
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            LOGGER.debug("Could not close coordinator socket", ex);
+        }
+        state = null;
+        serverSocket = null;
+    }
+
+    private <T> T call(Exchange<T> exchange) {
+        long deadline = System.currentTimeMillis() + FileWaiter.getTimeout();
+        boolean stale = false;
+        while (true) {
+            MemoryCoordinator host;
+            InetSocketAddress target;
+            synchronized (this) {
+                host = resolve(stale);
+                target = address;
+            }
+            if (host != null) {
+                return exchange.local(host);
+            }
+            long start = ReporterMetrics.start();
+            Connection connection;
+            try {
+                connection = new Connection(target);
+            } catch (IOException ex) {
+                connection = null;
+            } finally {
+                ReporterMetrics.record("coordination.connect", start);
+            }
+            if (connection != null) {
+                try {
+                    return exchange.remote(connection);
+                } catch (MovedException ex) {
+                    LOGGER.debug("Coordinator request to " + target + " has to be sent to the next host", ex);
+                } catch (IOException ex) {
+                    // the request may have been handled, it isn't safe to repeat it
+                    throw new IllegalStateException("Coordinator request to " + target + " failed", ex);
+                } finally {
+                    connection.close();
+                }
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("Could not reach the coordinator at " + target);
+            }
+            // the host may have exited, the next resolve checks the published address again
+            stale = true;
+            try {
+                Thread.sleep(CONNECT_RETRY_INTERVAL);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while connecting to " + target, ex);
+            }
+        }
+    }
+
+    /**
+     * Find the host of the state, becoming the host if no other fork is
+     *
+     * @param stale - true if the known host hasn't answered
+     * @return state of the launch if the JVM is the host, null if it is served at {@link #address}
+     */
+    private MemoryCoordinator resolve(boolean stale) {
+        if (state != null) {
+            return state;
+        }
+        if (address != null && !stale) {
+            return null;
+        }
+        if (!LOCK_FILE.getParentFile().isDirectory() && !LOCK_FILE.getParentFile().mkdirs()) {
+            throw new IllegalStateException("Could not create " + LOCK_FILE.getParentFile());
+        }
+        try (InterProcessLock ignored = InterProcessLock.acquire(LOCK_FILE)) {
+            Map<String, String> published = readAddress();
+            if (published != null) {
+                InetSocketAddress host = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(published.get("port")));
+                if (ping(host, published.get("token"))) {
+                    if (!token.equals(published.get("token"))) {
+                        throw new IllegalStateException("The coordinator at " + host + " serves another run in "
+                                + ADDRESS_FILE.getParentFile() + ", set " + TOKEN_PROPERTY_NAME + " or use another build directory");
+                    }
+                    address = host;
+                    return null;
+                }
+            }
+            host(readState());
+            return state;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not host the launch state", ex);
+        }
+    }
+
+    private void host(StateFile handedOff) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), SystemProperties.getInt(PORT_PROPERTY_NAME, 0)));
+        final MemoryCoordinator hosted = handedOff == null ? new MemoryCoordinator()
+                : new MemoryCoordinator(handedOff.launch, handedOff.remaining);
+        final ServerSocket listening = socket;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(listening, hosted, token);
+            }
+        }, "rp-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        writeAddress(socket.getLocalPort());
+        FileUtils.deleteQuietly(STATE_FILE);
+        state = hosted;
+        serverSocket = socket;
+        address = null;
+        if (handedOff != null) {
+            LOGGER.debug("Took over launch {} with {} runners in progress", handedOff.launch.getLaunchId(), handedOff.remaining);
+        }
+        if (!hooked) {
+            hooked = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    handOff();
+                }
+            }, "rp-coordinator-shutdown"));
+        }
+    }
+
+    private static boolean ping(InetSocketAddress host, String token) {
+        try (Connection connection = new Connection(host)) {
+            connection.send(token, PING);
+            return OK.equals(connection.in.readUTF());
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void writeAddress(int port) throws IOException {
+        java.io.File tmpFile = new java.io.File(ADDRESS_FILE.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeUTF(token);
+            out.writeInt(port);
+        }
+        move(tmpFile, ADDRESS_FILE);
+    }
+
+    /**
+     * @return token and port of the published host, null if none is published
+     */
+    private static Map<String, String> readAddress() {
+        if (!ADDRESS_FILE.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ADDRESS_FILE)))) {
+            Map<String, String> address = new LinkedHashMap<>();
+            address.put("token", in.readUTF());
+            address.put("port", String.valueOf(in.readInt()));
+            return address;
+        } catch (IOException ex) {
+            LOGGER.debug("Could not read coordinator address from " + ADDRESS_FILE, ex);
+            return null;
+        }
+    }
+
+    private void writeState(Launch launch, int remaining) throws IOException {
+        java.io.File tmpFile = new java.io.File(STATE_FILE.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeUTF(token);
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(launch.getLaunchId());
+            out.writeUTF(launch.getRootSuiteId());
+            out.writeInt(remaining);
+            out.writeInt(launch.getFeatureItemIds().size());
+            for (Map.Entry<String, String> feature : launch.getFeatureItemIds().entrySet()) {
+                out.writeUTF(feature.getKey());
+                out.writeUTF(feature.getValue());
+            }
+        }
+        move(tmpFile, STATE_FILE);
+    }
+
+    /**
+     * @return state handed off by the previous host of the run, null if there is none
+     */
+    private StateFile readState() {
+        if (!STATE_FILE.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(STATE_FILE)))) {
+            String stateToken = in.readUTF();
+            long handedOffAt = in.readLong();
+            if (!token.equals(stateToken) || System.currentTimeMillis() - handedOffAt > STATE_TTL) {
+                LOGGER.debug("Ignoring launch state left by another run in {}", STATE_FILE);
+                return null;
+            }
+            String launchId = in.readUTF();
+            String rootSuiteId = in.readUTF();
+            int remaining = in.readInt();
+            int count = in.readInt();
+            Map<String, String> features = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                features.put(in.readUTF(), in.readUTF());
+            }
+            return new StateFile(new Launch(launchId, rootSuiteId, features), remaining);
+        } catch (IOException ex) {
+            LOGGER.debug("Could not read launch state from " + STATE_FILE, ex);
+            return null;
+        }
+    }
+
+    private static void move(java.io.File source, java.io.File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void accept(ServerSocket serverSocket, final MemoryCoordinator state, final String token) {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException ex) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.debug("Could not accept coordinator connection", ex);
+                }
+                continue;
+            }
+            Thread handler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket, state, token);
+                }
+            }, "rp-coordinator-connection");
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    private static void serve(Socket socket, MemoryCoordinator state, String token) {
+        String claimedFeature = null;
+        try (Connection connection = new Connection(socket)) {
+            DataInputStream in = connection.in;
+            DataOutputStream out = connection.out;
+            String requestToken = in.readUTF();
+            String request = in.readUTF();
+            try {
+                if (!token.equals(requestToken)) {
+                    out.writeUTF(FOREIGN);
+                    out.flush();
+                    return;
+                }
+                switch (request) {
+                    case PING:
+                        out.writeUTF(OK);
+                        break;
+                    case LAUNCH:
+                        Launch launch = state.awaitLaunch(FileWaiter.getTimeout());
+                        out.writeUTF(OK);
+                        out.writeUTF(launch.getLaunchId());
+                        out.writeUTF(launch.getRootSuiteId());
+                        break;
+                    case FEATURE:
+                        String featureId = in.readUTF();
+                        String itemId = state.claimFeature(featureId, FileWaiter.getTimeout());
+                        out.writeUTF(OK);
+                        if (itemId != null) {
+                            out.writeUTF(OK);
+                            out.writeUTF(itemId);
+                            break;
+                        }
+                        claimedFeature = featureId;
+                        out.writeUTF(CREATE);
+                        out.flush();
+                        String result = in.readUTF();
+                        state.completeFeature(featureId, CREATED.equals(result) ? in.readUTF() : null);
+                        claimedFeature = null;
+                        out.writeUTF(OK);
+                        break;
+                    case LEAVE:
+                        List<String> itemIds = state.leave();
+                        out.writeUTF(OK);
+                        if (itemIds == null) {
+                            out.writeUTF(WAIT);
+                        } else {
+                            out.writeUTF(LAST);
+                            out.writeInt(itemIds.size());
+                            for (String id : itemIds) {
+                                out.writeUTF(id);
+                            }
+                        }
+                        break;
+                    default:
+                        out.writeUTF(ERROR);
+                        out.writeUTF("Unknown request " + request);
+                }
+            } catch (RuntimeException ex) {
+                if (state.isHandedOff()) {
+                    out.writeUTF(MOVED);
+                } else {
+                    out.writeUTF(ERROR);
+                    out.writeUTF(String.valueOf(ex.getMessage()));
+                }
+            }
+            out.flush();
+        } catch (IOException ex) {
+            LOGGER.debug("Coordinator connection failed", ex);
+        } catch (InterruptedException ex) {
+            LOGGER.debug("Interrupted while serving coordinator connection", ex);
+        } finally {
+            if (claimedFeature != null) {
+                state.completeFeature(claimedFeature, null);
+            }
+        }
+    }
+
+    /**
+     * A call made on the local state if the JVM is the host, over a connection to the host otherwise.
+     * A remote call is retried, possibly with another host, if the host could not be reached or has
+     * handed the state off.
+     */
+    private interface Exchange<T> {
+        T local(MemoryCoordinator state);
+
+        T remote(Connection connection) throws IOException;
+    }
+
+    /**
+     * The host has handed the state off without handling the request
+     */
+    private static final class MovedException extends IOException {
+        private MovedException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class StateFile {
+        private final Launch launch;
+        private final int remaining;
+
+        private StateFile(Launch launch, int remaining) {
+            this.launch = launch;
+            this.remaining = remaining;
+        }
+    }
+
+    private static final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(InetSocketAddress address) throws IOException {
+            this(open(address));
+        }
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private static Socket open(InetSocketAddress address) throws IOException {
+            int timeout = (int) Math.min(Integer.MAX_VALUE, FileWaiter.getTimeout());
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, timeout);
+                socket.setSoTimeout(timeout);
+                return socket;
+            } catch (IOException ex) {
+                socket.close();
+                throw ex;
+            }
+        }
+
+        private void send(String token, String request) throws IOException {
+            out.writeUTF(token);
+            out.writeUTF(request);
+            out.flush();
+        }
+
+        /**
+         * @throws MovedException if the host has handed the state off
+         * @throws IllegalStateException if the host has rejected the request
+         */
+        private void expectOk() throws IOException {
+            long start = ReporterMetrics.start();
+            String status = in.readUTF();
+            ReporterMetrics.record("coordination.wait", start);
+            if (MOVED.equals(status)) {
+                throw new MovedException("Launch state has been handed off by " + socket.getRemoteSocketAddress());
+            }
+            if (FOREIGN.equals(status)) {
+                throw new IllegalStateException("The coordinator at " + socket.getRemoteSocketAddress() + " serves another run");
+            }
+            if (!OK.equals(status)) {
+                throw new IllegalStateException("Coordinator error: " + (ERROR.equals(status) ? in.readUTF() : status));
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close coordinator connection", ex);
+            }
+        }
+    }
+}
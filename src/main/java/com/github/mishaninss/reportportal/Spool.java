@@ -0,0 +1,325 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.ta.reportportal.ws.model.StartTestItemRQ;
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Journal of test item events written instead of calling Report Portal, enabled with {@code rp.spool=true}.
+ * <p>
+ * The launch and the root suite are still started online. Every other item gets a local id right away,
+ * and its start, logs, updates and finish are appended to a journal file of the JVM in
+ * ./target/rp_spool/&lt;launch id&gt;, so journals left by earlier runs are never mixed into the launch.
+ * The runner that finishes the launch pushes the journals of the launch to Report Portal with
+ * {@link SpoolReplayer} before it finishes the features, the root suite and the launch. Attachments are not spooled,
+ * only the message of a log entry with an attachment is kept.
+ * <pre>
+ * journal: magic(4) version(1) record*
+ * record:  type(1) fields, strings as length(4) + UTF-8 bytes, length -1 for null
+ * </pre>
+ */
+final class Spool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Spool.class);
+
+    static final String SPOOL_PROPERTY_NAME = "rp.spool";
+    static final java.io.File SPOOL_DIR = new java.io.File("./target/rp_spool");
+    static final String JOURNAL_EXTENSION = ".journal";
+
+    static final int MAGIC = 0x52505350;
+    static final byte VERSION = 1;
+    static final byte START = 1;
+    static final byte FINISH = 2;
+    static final byte LOG = 3;
+    static final byte UPDATE = 4;
+
+    private static final String LOCAL_ID_PREFIX = "spool-";
+    private static final boolean ENABLED = SystemProperties.getBoolean(SPOOL_PROPERTY_NAME, false);
+    private static Spool instance;
+    private static String launchId;
+
+    private final DataOutputStream out;
+
+    private Spool(DataOutputStream out) {
+        this.out = out;
+    }
+
+    static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @param launchId - id of a launch
+     * @return directory of the journals of the launch
+     */
+    static java.io.File getDir(String launchId) {
+        return new java.io.File(SPOOL_DIR, launchId);
+    }
+
+    /**
+     * Write the journal of the JVM to the directory of a launch, called by every runner that joins a launch
+     *
+     * @param launchId - id of the launch
+     */
+    static synchronized void open(String launchId) {
+        if (launchId.equals(Spool.launchId)) {
+            return;
+        }
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+        Spool.launchId = launchId;
+    }
+
+    /**
+     * @return journal of the JVM, created on first use
+     * @throws IllegalStateException if no launch has been opened
+     */
+    static synchronized Spool get() {
+        if (instance == null) {
+            if (launchId == null) {
+                throw new IllegalStateException("Spool is not open");
+            }
+            try {
+                java.io.File dir = getDir(launchId);
+                dir.mkdirs();
+                java.io.File file = java.io.File.createTempFile("rp_", JOURNAL_EXTENSION, dir);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                instance = new Spool(out);
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not create spool journal", ex);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param itemId - id of a test item
+     * @return true if the item exists in a journal only
+     */
+    static boolean isLocalId(String itemId) {
+        return itemId != null && itemId.startsWith(LOCAL_ID_PREFIX);
+    }
+
+    /**
+     * Record the start of a test item
+     *
+     * @param parentId - id of the parent item, local or not
+     * @param rq - start request
+     * @return local id of the item
+     */
+    synchronized String startTestItem(String parentId, StartTestItemRQ rq) {
+        String itemId = LOCAL_ID_PREFIX + UUID.randomUUID();
+        Record record = new Record(START, itemId, rq.getStartTime());
+        record.parentId = parentId;
+        record.launchId = rq.getLaunchId();
+        record.name = rq.getName();
+        record.description = rq.getDescription();
+        record.tags = rq.getTags();
+        record.itemType = rq.getType();
+        append(record);
+        return itemId;
+    }
+
+    synchronized void finishTestItem(String itemId, String status, String issueComments, Date endTime) {
+        Record record = new Record(FINISH, itemId, endTime);
+        record.status = status;
+        record.issueComments = issueComments;
+        append(record);
+        // a crashed run loses at most the scenario in progress
+        flush();
+    }
+
+    synchronized void log(String itemId, String message, String level, Date time) {
+        Record record = new Record(LOG, itemId, time);
+        record.message = message;
+        record.level = level;
+        append(record);
+    }
+
+    synchronized void saveLogs(List<SaveLogRQ> rqs) {
+        for (SaveLogRQ rq : rqs) {
+            log(rq.getTestItemId(), rq.getMessage(), rq.getLevel(), rq.getLogTime());
+        }
+    }
+
+    synchronized void updateTestItem(String itemId, String description, Set<String> tags) {
+        Record record = new Record(UPDATE, itemId, null);
+        record.description = description;
+        record.tags = tags;
+        append(record);
+    }
+
+    /**
+     * Write buffered records to the journal file
+     */
+    synchronized void flush() {
+        long start = ReporterMetrics.start();
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            LOGGER.debug("Could not flush spool journal", ex);
+        } finally {
+            ReporterMetrics.record("spool.flush", start);
+        }
+    }
+
+    private synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException ex) {
+            LOGGER.debug("Could not close spool journal", ex);
+        }
+    }
+
+    private void append(Record record) {
+        try {
+            record.write(out);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not write spool journal", ex);
+        }
+    }
+
+    /**
+     * Event of a journal. Fields not used by the type are null.
+     */
+    static final class Record {
+        final byte type;
+        final String itemId;
+        final Date time;
+        String parentId;
+        String launchId;
+        String name;
+        String description;
+        Set<String> tags;
+        String itemType;
+        String status;
+        String issueComments;
+        String message;
+        String level;
+
+        private Record(byte type, String itemId, Date time) {
+            this.type = type;
+            this.itemId = itemId;
+            this.time = time;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            writeString(out, itemId);
+            out.writeLong(time == null ? -1 : time.getTime());
+            switch (type) {
+                case START:
+                    writeString(out, parentId);
+                    writeString(out, launchId);
+                    writeString(out, name);
+                    writeString(out, description);
+                    writeTags(out, tags);
+                    writeString(out, itemType);
+                    break;
+                case FINISH:
+                    writeString(out, status);
+                    writeString(out, issueComments);
+                    break;
+                case LOG:
+                    writeString(out, level);
+                    writeString(out, message);
+                    break;
+                case UPDATE:
+                    writeString(out, description);
+                    writeTags(out, tags);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record type " + type);
+            }
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            String itemId = readString(in);
+            long time = in.readLong();
+            Record record = new Record(type, itemId, time < 0 ? null : new Date(time));
+            switch (type) {
+                case START:
+                    record.parentId = readString(in);
+                    record.launchId = readString(in);
+                    record.name = readString(in);
+                    record.description = readString(in);
+                    record.tags = readTags(in);
+                    record.itemType = readString(in);
+                    break;
+                case FINISH:
+                    record.status = readString(in);
+                    record.issueComments = readString(in);
+                    break;
+                case LOG:
+                    record.level = readString(in);
+                    record.message = readString(in);
+                    break;
+                case UPDATE:
+                    record.description = readString(in);
+                    record.tags = readTags(in);
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+            return record;
+        }
+    }
+
+    private static void writeTags(DataOutputStream out, Set<String> tags) throws IOException {
+        out.writeInt(tags == null ? -1 : tags.size());
+        if (tags != null) {
+            for (String tag : tags) {
+                writeString(out, tag);
+            }
+        }
+    }
+
+    private static Set<String> readTags(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Set<String> tags = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            tags.add(readString(in));
+        }
+        return tags;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
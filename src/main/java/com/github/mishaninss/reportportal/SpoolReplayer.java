@@ -0,0 +1,404 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.ta.reportportal.ws.model.StartTestItemRQ;
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Pushes {@link Spool} journals to Report Portal.
+ * <p>
+ * Journals are replayed one after another. A journal whose next item has a parent started in another
+ * journal that hasn't been replayed yet is put aside until the parent is known, so parents are always
+ * started before their children. Log records are sent in batches of {@code rp.log.batch.size}.
+ * <p>
+ * Next to every journal a {@code .progress} file records how far it has been replayed and the item ids
+ * assigned by Report Portal, so a replay interrupted by a crash continues where it stopped. A record
+ * sent right before the crash can be sent a second time.
+ * <p>
+ * If the runner that finishes the launch can't replay the journals, it leaves the ids of the launch, the root
+ * suite and the features in a {@code finish.properties} file next to them. Run
+ * {@code java com.github.mishaninss.reportportal.SpoolReplayer [spool directory]} after the tests then: it
+ * replays the journals of every launch in {@code ./target/rp_spool} (or only the given launch directory) and
+ * finishes the launches that have the file. Launches without the file are still running or their runs have
+ * crashed before finishing them; their items are pushed but the launches are left open, and the replayer
+ * exits with status 1.
+ */
+public final class SpoolReplayer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpoolReplayer.class);
+
+    private static final String PROGRESS_EXTENSION = ".progress";
+    private static final String FINISH_FILE = "finish.properties";
+    private static final String LAUNCH_KEY = "launch";
+    private static final String ROOT_KEY = "root";
+    private static final String FEATURES_KEY = "features";
+    private static final String SKIPPED_KEY = "skipped";
+
+    private SpoolReplayer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        java.io.File dir = args.length > 0 ? new java.io.File(args[0]) : Spool.SPOOL_DIR;
+        List<java.io.File> launchDirs = new ArrayList<>();
+        if (new java.io.File(dir, FINISH_FILE).exists() || dir.isDirectory()
+                && !FileUtils.listFiles(dir, new String[]{Spool.JOURNAL_EXTENSION.substring(1)}, false).isEmpty()) {
+            launchDirs.add(dir);
+        } else {
+            java.io.File[] children = dir.listFiles();
+            for (java.io.File child : children == null ? new java.io.File[0] : children) {
+                if (child.isDirectory()) {
+                    launchDirs.add(child);
+                }
+            }
+        }
+        boolean open = false;
+        for (java.io.File launchDir : launchDirs) {
+            Map<String, String> itemIds = replay(launchDir);
+            System.out.println("Replayed " + itemIds.size() + " test items from " + launchDir);
+            if (finishLaunch(launchDir, itemIds)) {
+                System.out.println("Finished launch " + launchDir.getName());
+            } else {
+                System.out.println("Launch " + launchDir.getName() + " is left open, its run has not finished it");
+                open = true;
+            }
+        }
+        if (open) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Leave the ids needed to finish a launch whose journals could not be replayed, for {@link #main}
+     *
+     * @param dir - directory with the journals of the launch
+     * @param launchId - id of the launch
+     * @param rootItemId - id of the root suite
+     * @param featureItemIds - ids of the features, local or not
+     * @param skippedItemIds - ids of the features to finish as skipped, local or not
+     */
+    static void deferFinish(java.io.File dir, String launchId, String rootItemId, List<String> featureItemIds, List<String> skippedItemIds) {
+        Properties properties = new Properties();
+        properties.setProperty(LAUNCH_KEY, launchId);
+        properties.setProperty(ROOT_KEY, rootItemId);
+        properties.setProperty(FEATURES_KEY, StringUtils.join(featureItemIds, ','));
+        properties.setProperty(SKIPPED_KEY, StringUtils.join(skippedItemIds, ','));
+        dir.mkdirs();
+        try (OutputStream out = new FileOutputStream(new java.io.File(dir, FINISH_FILE))) {
+            properties.store(out, "Launch to finish after its spool journals have been replayed");
+        } catch (IOException ex) {
+            LOGGER.warn("Could not save the launch to finish to " + dir, ex);
+        }
+    }
+
+    /**
+     * Finish the features, the root suite and the launch left by {@link #deferFinish}, and delete the directory
+     *
+     * @return false if the directory has no launch to finish
+     */
+    private static boolean finishLaunch(java.io.File dir, Map<String, String> itemIds) throws IOException {
+        java.io.File file = new java.io.File(dir, FINISH_FILE);
+        if (!file.exists()) {
+            return false;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        List<String> featureItemIds = Arrays.asList(StringUtils.split(properties.getProperty(FEATURES_KEY, ""), ','));
+        List<String> skippedItemIds = Arrays.asList(StringUtils.split(properties.getProperty(SKIPPED_KEY, ""), ','));
+        List<String> failed = new LaunchFinalizer().finish(resolve(featureItemIds, itemIds), resolve(skippedItemIds, itemIds));
+        if (!failed.isEmpty()) {
+            LOGGER.warn("Could not finish features " + failed);
+        }
+        Date endTime = Calendar.getInstance().getTime();
+        ReportPortalClient.get().finishTestItem(properties.getProperty(ROOT_KEY), null, null, endTime);
+        ReportPortalClient.get().finishLaunch(properties.getProperty(LAUNCH_KEY), endTime);
+        FileUtils.deleteQuietly(dir);
+        return true;
+    }
+
+    /**
+     * @param featureItemIds - ids of the features, local or not
+     * @param itemIds - Report Portal item id of every replayed local item id
+     * @return Report Portal ids of the features that have been replayed
+     */
+    static List<String> resolve(List<String> featureItemIds, Map<String, String> itemIds) {
+        List<String> resolved = new ArrayList<>();
+        for (String featureItemId : featureItemIds) {
+            String itemId = Spool.isLocalId(featureItemId) ? itemIds.get(featureItemId) : featureItemId;
+            if (itemId != null) {
+                resolved.add(itemId);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Replay all journals of a directory and delete them
+     *
+     * @param dir - directory with the journals
+     * @return Report Portal item id of every local item id
+     * @throws IllegalStateException if a journal could not be replayed, the journals are kept then
+     */
+    static Map<String, String> replay(java.io.File dir) {
+        Map<String, String> itemIds = new HashMap<>();
+        if (!dir.isDirectory()) {
+            return itemIds;
+        }
+        Collection<java.io.File> files = FileUtils.listFiles(dir, new String[]{Spool.JOURNAL_EXTENSION.substring(1)}, false);
+        List<Journal> journals = new ArrayList<>();
+        try {
+            for (java.io.File file : files) {
+                journals.add(Journal.open(file, itemIds));
+            }
+            int batchSize = Math.max(1, SystemProperties.getInt(LogPipeline.BATCH_SIZE_PROPERTY_NAME, LogPipeline.DEFAULT_BATCH_SIZE));
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                for (Journal journal : journals) {
+                    progress |= journal.replay(itemIds, batchSize);
+                }
+            }
+            for (Journal journal : journals) {
+                if (!journal.isDone()) {
+                    throw new IllegalStateException("Parent of item " + journal.pending.itemId + " in " + journal.file + " is not in any journal");
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not replay spool journals in " + dir, ex);
+        } finally {
+            for (Journal journal : journals) {
+                journal.close();
+            }
+        }
+        for (Journal journal : journals) {
+            FileUtils.deleteQuietly(journal.file);
+            FileUtils.deleteQuietly(journal.progressFile);
+        }
+        // the directory stays while it holds a launch to finish
+        dir.delete();
+        return itemIds;
+    }
+
+    private static final class Journal implements Closeable {
+        private final java.io.File file;
+        private final java.io.File progressFile;
+        private final CountingInputStream counter;
+        private final DataInputStream in;
+        private final DataOutputStream progress;
+        private Spool.Record pending;
+        private long pendingEnd;
+        private boolean done;
+
+        private Journal(java.io.File file, java.io.File progressFile, CountingInputStream counter, DataOutputStream progress) {
+            this.file = file;
+            this.progressFile = progressFile;
+            this.counter = counter;
+            this.in = new DataInputStream(counter);
+            this.progress = progress;
+        }
+
+        /**
+         * Open a journal and skip the part replayed before
+         */
+        private static Journal open(java.io.File file, Map<String, String> itemIds) throws IOException {
+            java.io.File progressFile = new java.io.File(file.getPath() + PROGRESS_EXTENSION);
+            long offset = readProgress(progressFile, itemIds);
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            DataOutputStream progress = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(progressFile, true)));
+            Journal journal = new Journal(file, progressFile, counter, progress);
+            try {
+                if (journal.in.readInt() != Spool.MAGIC || journal.in.readByte() != Spool.VERSION) {
+                    throw new IOException(file + " is not a spool journal");
+                }
+            } catch (EOFException ex) {
+                journal.done = true;
+                return journal;
+            }
+            if (offset > counter.getCount()) {
+                ByteStreams.skipFully(counter, offset - counter.getCount());
+            }
+            return journal;
+        }
+
+        private static long readProgress(java.io.File progressFile, Map<String, String> itemIds) throws IOException {
+            long offset = 0;
+            if (!progressFile.exists()) {
+                return offset;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(progressFile)))) {
+                while (true) {
+                    long recordOffset = in.readLong();
+                    int mappings = in.readInt();
+                    for (int i = 0; i < mappings; i++) {
+                        String localId = in.readUTF();
+                        itemIds.put(localId, in.readUTF());
+                    }
+                    offset = recordOffset;
+                }
+            } catch (EOFException ex) {
+                // the last entry may have been cut by a crash
+            }
+            return offset;
+        }
+
+        private boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Replay records until the end of the journal or an item whose parent is not known yet
+         *
+         * @return true if at least one record has been replayed
+         */
+        private boolean replay(Map<String, String> itemIds, int batchSize) throws IOException {
+            boolean replayed = false;
+            List<SaveLogRQ> logs = new ArrayList<>();
+            long logsEnd = 0;
+            while (!done) {
+                Spool.Record record = pending;
+                long end = pendingEnd;
+                pending = null;
+                if (record == null) {
+                    try {
+                        record = Spool.Record.read(in);
+                    } catch (EOFException ex) {
+                        // a record cut by a crash is not replayed
+                        done = true;
+                        break;
+                    }
+                    end = counter.getCount();
+                }
+                if (record.type == Spool.START && Spool.isLocalId(record.parentId) && !itemIds.containsKey(record.parentId)) {
+                    pending = record;
+                    pendingEnd = end;
+                    break;
+                }
+                if (record.type == Spool.LOG) {
+                    logs.add(toLogRequest(record, itemIds));
+                    logsEnd = end;
+                    if (logs.size() >= batchSize) {
+                        sendLogs(logs, logsEnd);
+                    }
+                } else {
+                    sendLogs(logs, logsEnd);
+                    String itemId = apply(record, itemIds);
+                    saveProgress(end, itemId == null ? null : record.itemId, itemId);
+                }
+                replayed = true;
+            }
+            sendLogs(logs, logsEnd);
+            return replayed;
+        }
+
+        private void sendLogs(List<SaveLogRQ> logs, long end) throws IOException {
+            if (logs.isEmpty()) {
+                return;
+            }
+            ReportPortalClient.get().saveLogs(new ArrayList<>(logs));
+            logs.clear();
+            saveProgress(end, null, null);
+        }
+
+        /**
+         * @return Report Portal id of a started item, null for other records
+         */
+        private String apply(Spool.Record record, Map<String, String> itemIds) throws IOException {
+            switch (record.type) {
+                case Spool.START:
+                    StartTestItemRQ rq = new StartTestItemRQ();
+                    rq.setLaunchId(record.launchId);
+                    rq.setName(record.name);
+                    rq.setDescription(record.description);
+                    rq.setTags(record.tags);
+                    rq.setType(record.itemType);
+                    rq.setStartTime(record.time);
+                    String itemId = ReportPortalClient.get().startTestItem(resolve(record.parentId, itemIds), rq);
+                    itemIds.put(record.itemId, itemId);
+                    return itemId;
+                case Spool.FINISH:
+                    ReportPortalClient.get().finishTestItem(resolve(record.itemId, itemIds), record.status, record.issueComments, record.time);
+                    return null;
+                case Spool.UPDATE:
+                    ReportPortalClient.get().updateTestItem(resolve(record.itemId, itemIds), record.description, record.tags);
+                    return null;
+                default:
+                    throw new IOException("Unexpected record type " + record.type);
+            }
+        }
+
+        private static SaveLogRQ toLogRequest(Spool.Record record, Map<String, String> itemIds) {
+            SaveLogRQ rq = new SaveLogRQ();
+            rq.setTestItemId(resolve(record.itemId, itemIds));
+            rq.setMessage(record.message);
+            rq.setLevel(record.level);
+            rq.setLogTime(record.time);
+            return rq;
+        }
+
+        private static String resolve(String itemId, Map<String, String> itemIds) {
+            if (!Spool.isLocalId(itemId)) {
+                return itemId;
+            }
+            String resolved = itemIds.get(itemId);
+            if (resolved == null) {
+                throw new IllegalStateException("Item " + itemId + " has not been started");
+            }
+            return resolved;
+        }
+
+        /**
+         * Record that the journal has been sent up to the offset
+         */
+        private void saveProgress(long offset, String localId, String itemId) throws IOException {
+            progress.writeLong(offset);
+            if (localId == null) {
+                progress.writeInt(0);
+            } else {
+                progress.writeInt(1);
+                progress.writeUTF(localId);
+                progress.writeUTF(itemId);
+            }
+            progress.flush();
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close " + file, ex);
+            }
+            try {
+                progress.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close " + progressFile, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Typed access to the system properties the reporter is configured with
+ */
+final class SystemProperties {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SystemProperties.class);
+
+    private SystemProperties() {
+    }
+
+    static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        return StringUtils.isBlank(value) ? defaultValue : value.trim();
+    }
+
+    static int getInt(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            LOGGER.debug("Incorrect " + name + " value", ex);
+            return defaultValue;
+        }
+    }
+
+    static long getLong(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            LOGGER.debug("Incorrect " + name + " value", ex);
+            return defaultValue;
+        }
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        String value = System.getProperty(name);
+        return StringUtils.isBlank(value) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AttemptBufferTest {
+    private RecordingReportPortalService service;
+
+    @Before
+    public void setUp() throws IllegalAccessException {
+        service = RecordingReportPortalService.install();
+        System.setProperty(AttemptBuffer.CAPACITY_PROPERTY_NAME, "1");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(AttemptBuffer.CAPACITY_PROPERTY_NAME);
+    }
+
+    @Test
+    public void spilledMessagesWithoutTextAreSent() {
+        AttemptBuffer buffer = new AttemptBuffer();
+        buffer.add(0, "first", "INFO");
+        buffer.add(0, null, "ERROR");
+        buffer.add(0, "third", null);
+
+        buffer.take(0).send("item");
+
+        List<SaveLogRQ> logs = service.getLogs();
+        assertEquals(3, logs.size());
+        assertEquals("first", logs.get(0).getMessage());
+        assertNull(logs.get(1).getMessage());
+        assertEquals("ERROR", logs.get(1).getLevel());
+        assertEquals("third", logs.get(2).getMessage());
+        assertNull(logs.get(2).getLevel());
+    }
+}
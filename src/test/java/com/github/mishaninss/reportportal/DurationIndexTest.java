@@ -0,0 +1,69 @@
+package com.github.mishaninss.reportportal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class DurationIndexTest {
+    private java.io.File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = java.io.File.createTempFile("rp_durations", ".idx");
+        file.delete();
+        System.setProperty(DurationIndex.FILE_PROPERTY_NAME, file.getPath());
+        System.setProperty(FeaturePreregistrar.PATH_PROPERTY_NAME, "src/test/resources");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(DurationIndex.FILE_PROPERTY_NAME);
+        System.clearProperty(FeaturePreregistrar.PATH_PROPERTY_NAME);
+        file.delete();
+    }
+
+    @Test
+    public void classpathAndFileUrisShareKeys() {
+        assertEquals("features/a.feature", DurationIndex.normalize("classpath:features/a.feature"));
+        assertEquals("features/a.feature", DurationIndex.normalize("src/test/resources/features/a.feature"));
+        assertEquals("features/a.feature", DurationIndex.normalize("./src/test/resources/features/a.feature"));
+        assertEquals("features/a.feature", DurationIndex.normalize(new java.io.File("src/test/resources/features/a.feature").getAbsolutePath()));
+        assertEquals("features/a.feature", DurationIndex.normalize("features/a.feature"));
+    }
+
+    @Test
+    public void featureDurationSumsItsScenarios() {
+        DurationIndex recorded = DurationIndex.create();
+        recorded.record("classpath:features/a.feature", 3, 100);
+        recorded.record("classpath:features/a.feature", 7, 50);
+        recorded.record("src/test/resources/features/ab.feature", 3, 1000);
+        recorded.save();
+
+        DurationIndex index = DurationIndex.load();
+        assertEquals(150, index.getFeatureDuration("features/a.feature"));
+        assertEquals(1000, index.getFeatureDuration("features/ab.feature"));
+        assertEquals(-1, index.getFeatureDuration("features/b.feature"));
+    }
+
+    @Test
+    public void savedDurationsAreAveragedWithStoredOnes() {
+        DurationIndex first = DurationIndex.create();
+        first.record("features/a.feature", 3, 100);
+        first.record("features/b.feature", 5, 400);
+        first.save();
+
+        DurationIndex second = DurationIndex.create();
+        second.record("classpath:features/a.feature", 3, 300);
+        second.record("features/c.feature", 2, 50);
+        second.save();
+
+        DurationIndex index = DurationIndex.load();
+        assertEquals(200, index.getFeatureDuration("features/a.feature"));
+        assertEquals(400, index.getFeatureDuration("features/b.feature"));
+        assertEquals(50, index.getFeatureDuration("features/c.feature"));
+    }
+}
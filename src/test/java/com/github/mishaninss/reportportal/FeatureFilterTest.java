@@ -0,0 +1,53 @@
+package com.github.mishaninss.reportportal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FeatureFilterTest {
+    private static final java.io.File FILE = new java.io.File("features/sub/b.feature");
+    private static final String URI = "features/sub/b.feature";
+
+    @Test
+    public void allFeaturesPassWithoutOptions() {
+        assertEquals(Collections.emptyList(), FeatureFilter.parse("").getFilters(FILE, URI));
+    }
+
+    @Test
+    public void tagsAreTakenFromEveryTagsOption() {
+        FeatureFilter filter = FeatureFilter.parse("--glue com.example --tags @smoke,@fast -t ~@slow");
+        assertEquals(Arrays.<Object>asList("@smoke,@fast", "~@slow"), filter.getFilters(FILE, URI));
+    }
+
+    @Test
+    public void namesAreTakenInsteadOfTags() {
+        List<Object> filters = FeatureFilter.parse("--tags @smoke --name 'log in'").getFilters(FILE, URI);
+        assertEquals(1, filters.size());
+        assertEquals("log in", ((Pattern) filters.get(0)).pattern());
+    }
+
+    @Test
+    public void featuresOutsideOfThePathsAreExcluded() {
+        FeatureFilter filter = FeatureFilter.parse("classpath:features/other --plugin pretty");
+        assertNull(filter.getFilters(FILE, URI));
+    }
+
+    @Test
+    public void linesOfThePathAreTakenInsteadOfTags() {
+        FeatureFilter filter = FeatureFilter.parse("classpath:features/sub/b.feature:6:12 --tags @smoke");
+        assertEquals(Arrays.<Object>asList(6L, 12L), filter.getFilters(FILE, URI));
+    }
+
+    @Test
+    public void directoryPathIncludesItsFeatures() {
+        FeatureFilter filter = FeatureFilter.parse("classpath:features/sub/ --tags @smoke");
+        assertEquals(Arrays.<Object>asList("@smoke"), filter.getFilters(FILE, URI));
+        assertNull(filter.getFilters(new java.io.File("features/subset/c.feature"), "features/subset/c.feature"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileCoordinatorTest {
+    private static final java.io.File REGISTRY_FILE = new java.io.File("./target/rp_launch.registry");
+    private static final java.io.File LEASE_DIR = new java.io.File("./target/rp_leases");
+
+    @Before
+    public void setUp() {
+        System.setProperty(Coordinators.RUNNERS_PROPERTY_NAME, "2");
+        System.setProperty(RunnerLease.TIMEOUT_PROPERTY_NAME, "1000");
+        System.setProperty(RunnerLease.HEARTBEAT_PROPERTY_NAME, "100");
+        cleanUp();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(Coordinators.RUNNERS_PROPERTY_NAME);
+        System.clearProperty(RunnerLease.TIMEOUT_PROPERTY_NAME);
+        System.clearProperty(RunnerLease.HEARTBEAT_PROPERTY_NAME);
+        cleanUp();
+    }
+
+    @Test
+    public void launchIsFinishedWhenForkDiesRightBeforeOthersLeave() throws IOException {
+        FileCoordinator coordinator = new FileCoordinator(1);
+        coordinator.joinLaunch(starter());
+        killedFork();
+
+        assertNull(coordinator.leave());
+        final List<List<String>> finished = new ArrayList<>();
+        coordinator.takeOver(new Coordinator.LaunchFinisher() {
+            @Override
+            public void finish(List<String> featureItemIds) {
+                finished.add(featureItemIds);
+            }
+        });
+        long start = System.currentTimeMillis();
+        coordinator.awaitRunners();
+
+        assertEquals(1, finished.size());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void liveForkFinishesLaunchAfterWaitingForkGivesUp() {
+        FileCoordinator first = new FileCoordinator(1);
+        FileCoordinator second = new FileCoordinator(2);
+        first.joinLaunch(starter());
+        second.joinLaunch(starter());
+
+        assertNull(first.leave());
+        final List<List<String>> finished = new ArrayList<>();
+        first.takeOver(new Coordinator.LaunchFinisher() {
+            @Override
+            public void finish(List<String> featureItemIds) {
+                finished.add(featureItemIds);
+            }
+        });
+        first.awaitRunners();
+
+        assertTrue(finished.isEmpty());
+        assertNotNull(second.leave());
+    }
+
+    private static Callable<Coordinator.Launch> starter() {
+        return new Callable<Coordinator.Launch>() {
+            @Override
+            public Coordinator.Launch call() {
+                return new Coordinator.Launch("launch", "root");
+            }
+        };
+    }
+
+    /**
+     * Lease of a fork that has just renewed it and died
+     */
+    private static void killedFork() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("owner", "killed");
+        properties.setProperty("runners", "1");
+        properties.setProperty("renewed", String.valueOf(System.currentTimeMillis()));
+        try (OutputStream out = new FileOutputStream(new java.io.File(LEASE_DIR, "killed.lease"))) {
+            properties.store(out, null);
+        }
+    }
+
+    private static void cleanUp() {
+        FileUtils.deleteQuietly(REGISTRY_FILE);
+        FileUtils.deleteQuietly(LEASE_DIR);
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.mishaninss.reportportal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class LaunchFinalizerTest {
+    private RecordingReportPortalService service;
+
+    @Before
+    public void setUp() throws IllegalAccessException {
+        service = RecordingReportPortalService.install();
+        System.setProperty(LaunchFinalizer.TIMEOUT_PROPERTY_NAME, "200");
+        System.setProperty(LaunchFinalizer.RETRIES_PROPERTY_NAME, "1");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(LaunchFinalizer.TIMEOUT_PROPERTY_NAME);
+        System.clearProperty(LaunchFinalizer.RETRIES_PROPERTY_NAME);
+    }
+
+    @Test
+    public void itemFinishedByTimedOutRequestCountsAsFinished() {
+        service.setFinishDelay(1000);
+
+        assertEquals(Collections.emptyList(), new LaunchFinalizer().finish(Collections.singletonList("item")));
+        assertEquals(Arrays.asList("item", "item"), service.getFinishRequests());
+    }
+
+    @Test
+    public void itemIsFinishedOnce() {
+        assertEquals(Collections.emptyList(), new LaunchFinalizer().finish(Arrays.asList("first", "second")));
+        assertEquals(2, service.getFinishRequests().size());
+    }
+}
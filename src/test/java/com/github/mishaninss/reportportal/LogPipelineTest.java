@@ -0,0 +1,90 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogPipelineTest {
+    private RecordingReportPortalService service;
+    private LogPipeline pipeline;
+
+    @Before
+    public void setUp() throws IllegalAccessException {
+        service = RecordingReportPortalService.install();
+        System.setProperty(LogPipeline.ASYNC_PROPERTY_NAME, "true");
+        System.setProperty(LogPipeline.QUEUE_CAPACITY_PROPERTY_NAME, "2");
+    }
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        System.clearProperty(LogPipeline.ASYNC_PROPERTY_NAME);
+        System.clearProperty(LogPipeline.QUEUE_CAPACITY_PROPERTY_NAME);
+        System.clearProperty(LogPipeline.QUEUE_POLICY_PROPERTY_NAME);
+    }
+
+    @Test
+    public void spilledMessagesDontWaitForTheirItem() {
+        System.setProperty(LogPipeline.QUEUE_POLICY_PROPERTY_NAME, "SPILL");
+        pipeline = LogPipeline.create();
+        ItemHandle item = ItemHandle.pending();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            pipeline.log(item, "message " + i, "INFO");
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        item.complete("item");
+        pipeline.flush();
+        List<SaveLogRQ> logs = service.getLogs();
+        assertEquals(50, logs.size());
+        for (SaveLogRQ log : logs) {
+            assertEquals("item", log.getTestItemId());
+        }
+    }
+
+    @Test
+    public void messagesOfDeferredItemDontBlockTheQueue() {
+        System.setProperty(LogPipeline.QUEUE_POLICY_PROPERTY_NAME, "BLOCK");
+        pipeline = LogPipeline.create();
+        DeferredCalls deferred = new DeferredCalls();
+        ItemDispatcher dispatcher = ItemDispatcher.create(deferred);
+        ItemHandle feature = ItemHandle.of("feature");
+
+        long start = System.currentTimeMillis();
+        deferred.begin();
+        ItemHandle item = dispatcher.start(new Callable<String>() {
+            @Override
+            public String call() {
+                return "item";
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            pipeline.log(item, "message " + i, "INFO");
+            pipeline.log(feature, "feature message " + i, "INFO");
+        }
+        deferred.end();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        pipeline.flush();
+        List<SaveLogRQ> logs = service.getLogs();
+        assertEquals(40, logs.size());
+        int next = 0;
+        for (SaveLogRQ log : logs) {
+            if ("item".equals(log.getTestItemId())) {
+                assertEquals("message " + next++, log.getMessage());
+            }
+        }
+        assertEquals(20, next);
+    }
+}
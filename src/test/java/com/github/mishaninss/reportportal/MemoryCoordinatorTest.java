@@ -0,0 +1,176 @@
+package com.github.mishaninss.reportportal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class MemoryCoordinatorTest {
+    private static final long TIMEOUT = 5000;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() {
+        System.setProperty(Coordinators.RUNNERS_PROPERTY_NAME, "2");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(Coordinators.RUNNERS_PROPERTY_NAME);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void launchIsStartedOnce() {
+        MemoryCoordinator coordinator = new MemoryCoordinator();
+        AtomicInteger starts = new AtomicInteger();
+        Coordinator.Launch first = coordinator.joinLaunch(starter("launch", starts));
+        Coordinator.Launch second = coordinator.joinLaunch(starter("other", starts));
+        assertSame(first, second);
+        assertEquals(1, starts.get());
+    }
+
+    @Test
+    public void lastRunnerToLeaveGetsFeatures() {
+        MemoryCoordinator coordinator = new MemoryCoordinator();
+        coordinator.joinLaunch(starter("launch", new AtomicInteger()));
+        assertEquals("item", coordinator.getOrCreateFeatureItemId("feature", creator("item")));
+        assertNull(coordinator.leave());
+        assertEquals(Collections.singletonList("item"), coordinator.leave());
+    }
+
+    @Test
+    public void secondClaimWaitsForCreator() throws Exception {
+        final MemoryCoordinator coordinator = new MemoryCoordinator();
+        coordinator.joinLaunch(starter("launch", new AtomicInteger()));
+        assertNull(coordinator.claimFeature("feature", TIMEOUT));
+        Future<String> waiting = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return coordinator.claimFeature("feature", TIMEOUT);
+            }
+        });
+        assertNotDone(waiting);
+        coordinator.completeFeature("feature", "item");
+        assertEquals("item", waiting.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedCreationIsRetriedByNextRunner() throws Exception {
+        MemoryCoordinator coordinator = new MemoryCoordinator();
+        coordinator.joinLaunch(starter("launch", new AtomicInteger()));
+        assertNull(coordinator.claimFeature("feature", TIMEOUT));
+        coordinator.completeFeature("feature", null);
+        assertNull(coordinator.claimFeature("feature", TIMEOUT));
+        coordinator.completeFeature("feature", "item");
+        assertEquals("item", coordinator.claimFeature("feature", TIMEOUT));
+    }
+
+    @Test
+    public void handOffWaitsForFeaturesBeingCreated() throws Exception {
+        final MemoryCoordinator coordinator = new MemoryCoordinator();
+        coordinator.joinLaunch(starter("launch", new AtomicInteger()));
+        assertNull(coordinator.claimFeature("feature", TIMEOUT));
+        Future<Coordinator.Launch> handOff = executor.submit(new Callable<Coordinator.Launch>() {
+            @Override
+            public Coordinator.Launch call() throws Exception {
+                return coordinator.handOff(TIMEOUT);
+            }
+        });
+        assertNotDone(handOff);
+        coordinator.completeFeature("feature", "item");
+        Coordinator.Launch launch = handOff.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals("launch", launch.getLaunchId());
+        assertEquals(Collections.singletonMap("feature", "item"), launch.getFeatureItemIds());
+    }
+
+    @Test
+    public void handedOffStateRejectsRequests() throws Exception {
+        MemoryCoordinator coordinator = new MemoryCoordinator();
+        coordinator.joinLaunch(starter("launch", new AtomicInteger()));
+        coordinator.handOff(TIMEOUT);
+        try {
+            coordinator.leave();
+            fail("Handed off state must not count runners");
+        } catch (IllegalStateException ex) {
+            assertEquals(2, coordinator.getRemaining());
+        }
+    }
+
+    @Test
+    public void takenOverStateIsFinishedByLastRunner() throws Exception {
+        MemoryCoordinator host = new MemoryCoordinator();
+        host.joinLaunch(starter("launch", new AtomicInteger()));
+        host.getOrCreateFeatureItemId("first", creator("item1"));
+        assertNull(host.leave());
+        Coordinator.Launch launch = host.handOff(TIMEOUT);
+
+        AtomicInteger starts = new AtomicInteger();
+        MemoryCoordinator next = new MemoryCoordinator(launch, host.getRemaining());
+        assertEquals("launch", next.joinLaunch(starter("other", starts)).getLaunchId());
+        assertEquals(0, starts.get());
+        assertEquals("item1", next.getOrCreateFeatureItemId("first", creator("duplicate")));
+        next.getOrCreateFeatureItemId("second", creator("item2"));
+        assertEquals(Arrays.asList("item1", "item2"), next.leave());
+    }
+
+    @Test
+    public void runnersAreAwaited() throws Exception {
+        final MemoryCoordinator coordinator = new MemoryCoordinator();
+        coordinator.joinLaunch(starter("launch", new AtomicInteger()));
+        coordinator.leave();
+        assertFalse(coordinator.awaitRunners(10));
+        Future<Boolean> waiting = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return coordinator.awaitRunners(TIMEOUT);
+            }
+        });
+        coordinator.leave();
+        assertEquals(Boolean.TRUE, waiting.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    static Callable<Coordinator.Launch> starter(final String launchId, final AtomicInteger starts) {
+        return new Callable<Coordinator.Launch>() {
+            @Override
+            public Coordinator.Launch call() {
+                starts.incrementAndGet();
+                return new Coordinator.Launch(launchId, launchId + "-root");
+            }
+        };
+    }
+
+    static Callable<String> creator(final String itemId) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return itemId;
+            }
+        };
+    }
+
+    private static void assertNotDone(Future<?> future) throws Exception {
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            fail("Call must wait");
+        } catch (TimeoutException ex) {
+            // still waiting
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.mishaninss.reportportal;
+
+import com.epam.reportportal.cucumber.Utils;
+import com.epam.reportportal.exception.ReportPortalClientException;
+import com.epam.reportportal.restclient.endpoint.MultiPartRequest;
+import com.epam.reportportal.restclient.endpoint.RestEndpoint;
+import com.epam.reportportal.service.ReportPortalService;
+import com.epam.reportportal.utils.queue.Result;
+import com.epam.ta.reportportal.ws.model.EntryCreatedRS;
+import com.epam.ta.reportportal.ws.model.ErrorRS;
+import com.epam.ta.reportportal.ws.model.ErrorType;
+import com.epam.ta.reportportal.ws.model.FinishTestItemRQ;
+import com.epam.ta.reportportal.ws.model.OperationCompletionRS;
+import com.epam.ta.reportportal.ws.model.StartTestItemRQ;
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import com.google.common.base.Suppliers;
+import org.apache.commons.lang3.reflect.FieldUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Report Portal service answering every request in process and recording the logs and finished items.
+ * {@link ReportPortalClient} resolves the service once per JVM, so all tests share one instance.
+ */
+final class RecordingReportPortalService extends ReportPortalService {
+    private static RecordingReportPortalService instance;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final List<SaveLogRQ> logs = Collections.synchronizedList(new ArrayList<SaveLogRQ>());
+    private final List<String> finishRequests = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> finishedItems = Collections.synchronizedSet(new HashSet<String>());
+    private volatile long finishDelay;
+
+    private RecordingReportPortalService(Recorder recorder) {
+        super(endpoint(recorder), "api/v1", "test");
+        recorder.service = this;
+    }
+
+    /**
+     * Replace the service of the Cucumber agent with the recording one and forget what it has recorded
+     */
+    static synchronized RecordingReportPortalService install() throws IllegalAccessException {
+        if (instance == null) {
+            instance = new RecordingReportPortalService(new Recorder());
+            FieldUtils.writeStaticField(Utils.class, "reportPortalService", Suppliers.ofInstance(instance), true);
+        }
+        instance.logs.clear();
+        instance.finishRequests.clear();
+        instance.finishedItems.clear();
+        instance.finishDelay = 0;
+        return instance;
+    }
+
+    List<SaveLogRQ> getLogs() {
+        synchronized (logs) {
+            return new ArrayList<>(logs);
+        }
+    }
+
+    /**
+     * @return ids of the items of every finish request received, in the order received
+     */
+    List<String> getFinishRequests() {
+        synchronized (finishRequests) {
+            return new ArrayList<>(finishRequests);
+        }
+    }
+
+    /**
+     * @param finishDelay - time in milliseconds finish requests take after the item has been finished
+     */
+    void setFinishDelay(long finishDelay) {
+        this.finishDelay = finishDelay;
+    }
+
+    @Override
+    public EntryCreatedRS startRootTestItem(StartTestItemRQ rq) {
+        return new EntryCreatedRS(nextId());
+    }
+
+    @Override
+    public EntryCreatedRS startTestItem(String parentItemId, StartTestItemRQ rq) {
+        return new EntryCreatedRS(nextId());
+    }
+
+    @Override
+    public OperationCompletionRS finishTestItem(String itemId, FinishTestItemRQ rq) {
+        finishRequests.add(itemId);
+        if (!finishedItems.add(itemId)) {
+            ErrorRS error = new ErrorRS();
+            error.setErrorType(ErrorType.REPORTING_ITEM_ALREADY_FINISHED);
+            error.setMessage("Test item '" + itemId + "' has been finished already");
+            throw new ReportPortalClientException(406, "Not Acceptable", error);
+        }
+        if (finishDelay > 0) {
+            try {
+                Thread.sleep(finishDelay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new OperationCompletionRS();
+    }
+
+    @Override
+    public Result<EntryCreatedRS> log(SaveLogRQ rq) {
+        logs.add(rq);
+        return new Result<>(new EntryCreatedRS(nextId()));
+    }
+
+    private String nextId() {
+        return Long.toHexString(ids.incrementAndGet());
+    }
+
+    /**
+     * Endpoint recording the logs of multipart requests sent by {@link ReportPortalClient}
+     */
+    private static RestEndpoint endpoint(final Recorder recorder) {
+        return (RestEndpoint) Proxy.newProxyInstance(RestEndpoint.class.getClassLoader(), new Class<?>[]{RestEndpoint.class}, recorder);
+    }
+
+    private static final class Recorder implements InvocationHandler {
+        private RecordingReportPortalService service;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (args != null) {
+                for (Object arg : args) {
+                    if (arg instanceof MultiPartRequest) {
+                        for (MultiPartRequest.MultiPartSerialized<?> part : ((MultiPartRequest<?>) arg).getSerializedRQs()) {
+                            if (part.getRequest() instanceof List) {
+                                service.logs.addAll((List<SaveLogRQ>) part.getRequest());
+                            }
+                        }
+                    }
+                }
+            }
+            Object last = args == null || args.length == 0 ? null : args[args.length - 1];
+            return last instanceof Class ? ((Class<?>) last).newInstance() : null;
+        }
+    }
+}
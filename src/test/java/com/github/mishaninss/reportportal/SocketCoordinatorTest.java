@@ -0,0 +1,76 @@
+package com.github.mishaninss.reportportal;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.mishaninss.reportportal.MemoryCoordinatorTest.creator;
+import static com.github.mishaninss.reportportal.MemoryCoordinatorTest.starter;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class SocketCoordinatorTest {
+    private final String token = "test-" + System.nanoTime();
+    private SocketCoordinator host;
+    private SocketCoordinator client;
+
+    @Before
+    public void setUp() {
+        System.setProperty(Coordinators.RUNNERS_PROPERTY_NAME, "2");
+        host = new SocketCoordinator(token);
+        client = new SocketCoordinator(token);
+    }
+
+    @After
+    public void tearDown() {
+        client.handOff();
+        host.handOff();
+        FileUtils.deleteQuietly(new java.io.File("./target/rp_coordinator.state"));
+        System.clearProperty(Coordinators.RUNNERS_PROPERTY_NAME);
+    }
+
+    @Test
+    public void clientJoinsLaunchOfHost() {
+        AtomicInteger starts = new AtomicInteger();
+        assertEquals("launch", host.joinLaunch(starter("launch", starts)).getLaunchId());
+        assertEquals("launch", client.joinLaunch(starter("other", starts)).getLaunchId());
+        assertEquals(1, starts.get());
+        assertEquals("item", client.getOrCreateFeatureItemId("feature", creator("item")));
+        assertEquals("item", host.getOrCreateFeatureItemId("feature", creator("duplicate")));
+        assertNull(client.leave());
+        assertEquals(Collections.singletonList("item"), host.leave());
+    }
+
+    @Test
+    public void stateIsTakenOverWhenHostExitsFirst() {
+        AtomicInteger starts = new AtomicInteger();
+        host.joinLaunch(starter("launch", starts));
+        client.joinLaunch(starter("other", starts));
+        host.getOrCreateFeatureItemId("feature", creator("item"));
+        assertNull(host.leave());
+        host.handOff();
+
+        assertEquals("item", client.getOrCreateFeatureItemId("feature", creator("duplicate")));
+        assertEquals(Collections.singletonList("item"), client.leave());
+        assertEquals(1, starts.get());
+    }
+
+    @Test
+    public void coordinatorOfAnotherRunIsRejected() {
+        host.joinLaunch(starter("launch", new AtomicInteger()));
+        SocketCoordinator foreign = new SocketCoordinator("other-" + token);
+        try {
+            foreign.joinLaunch(starter("foreign", new AtomicInteger()));
+            fail("Launch of another run must not be joined");
+        } catch (IllegalStateException ex) {
+            // expected
+        } finally {
+            foreign.handOff();
+        }
+    }
+}